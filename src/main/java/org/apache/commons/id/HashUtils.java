@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id;
+
+/**
+ * <p>Non-cryptographic hashing operations used when identifiers have to be
+ * routed, bucketed or sketched. Unlike {@link DigestUtils} these functions
+ * make no security claims; they are fast, allocation free and their output
+ * is fixed so that other languages can reproduce it. This class is thread
+ * safe.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class HashUtils {
+
+    /** First multiplier of the MurmurHash3 64-bit finalizer. */
+    private static final long FMIX_C1 = 0xff51afd7ed558ccdL;
+
+    /** Second multiplier of the MurmurHash3 64-bit finalizer. */
+    private static final long FMIX_C2 = 0xc4ceb9fe1a85ec53L;
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private HashUtils() {
+    }
+
+    /**
+     * <p>Applies the MurmurHash3 64-bit finalizer (<code>fmix64</code>) to a
+     * value. Every input bit affects every output bit, which makes the result
+     * usable as a hash of structured values such as counters or time-based
+     * identifiers.</p>
+     *
+     * <pre>
+     * k ^= k &gt;&gt;&gt; 33;
+     * k *= 0xff51afd7ed558ccd;
+     * k ^= k &gt;&gt;&gt; 33;
+     * k *= 0xc4ceb9fe1a85ec53;
+     * k ^= k &gt;&gt;&gt; 33;
+     * </pre>
+     *
+     * @param k the value to mix.
+     * @return the mixed value.
+     */
+    public static long mix64(long k) {
+        k ^= k >>> 33;
+        k *= FMIX_C1;
+        k ^= k >>> 33;
+        k *= FMIX_C2;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * <p>Reduces a 128-bit value, given as its most and least significant
+     * halves, to a well mixed 64-bit hash:
+     * <code>mix64(mostSignificant ^ mix64(leastSignificant))</code>.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the 64-bit hash of the 128-bit value.
+     */
+    public static long hash128To64(long mostSignificant, long leastSignificant) {
+        return mix64(mostSignificant ^ mix64(leastSignificant));
+    }
+}
@@ -17,6 +17,8 @@
 
 package org.apache.commons.id;
 
+import java.nio.ByteBuffer;
+
 import org.apache.commons.id.DecoderException;
 import org.apache.commons.id.EncoderException;
 
@@ -37,6 +39,18 @@ public class Hex {//implements BinaryEncoder, BinaryDecoder {
            '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
     };
 
+    /**
+     * Used to decode single hex digits: the value of each ASCII character,
+     * or -1 if it is not a hex digit.
+     */
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < DIGIT_VALUES.length; i++) {
+            DIGIT_VALUES[i] = (byte) Character.digit((char) i, 16);
+        }
+    }
+
     /**
      * Converts an array of characters representing hexidecimal values into an
      * array of bytes of those same values. The returned array will be half the
@@ -88,6 +102,18 @@ public class Hex {//implements BinaryEncoder, BinaryDecoder {
         return digit;
     }
 
+    /**
+     * Converts an ASCII hexadecimal character to its value with a table
+     * lookup. Unlike {@link #toDigit(char, int)} this method does not throw,
+     * so callers can validate many digits at once by OR-ing the results.
+     *
+     * @param ch A character, or an ASCII byte value
+     * @return The value of the digit, 0 to 15, or -1 if ch is not a hex digit
+     */
+    public static int decodeDigit(int ch) {
+        return (ch & ~0x7F) == 0 ? DIGIT_VALUES[ch] : -1;
+    }
+
     /**
      * Converts an array of bytes into an array of characters representing the hexidecimal values of each byte in order.
      * The returned array will be double the length of the passed array, as it takes two characters to represent any
@@ -112,6 +138,55 @@ public class Hex {//implements BinaryEncoder, BinaryDecoder {
            return out;
     }
 	
+    /**
+     * Writes the lowest <code>digits</code> nibbles of a value as lower case
+     * hexadecimal characters, most significant first.
+     *
+     * @param value the value to encode
+     * @param out the array receiving the characters
+     * @param offset the index in out of the first character
+     * @param digits the number of hex digits to write, at most 16
+     */
+    public static void encodeHex(long value, char[] out, int offset, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = DIGITS[(int) value & 0x0F];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Writes the lowest <code>digits</code> nibbles of a value as lower case
+     * hexadecimal ASCII bytes, most significant first.
+     *
+     * @param value the value to encode
+     * @param out the array receiving the bytes
+     * @param offset the index in out of the first byte
+     * @param digits the number of hex digits to write, at most 16
+     */
+    public static void encodeHex(long value, byte[] out, int offset, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (byte) DIGITS[(int) value & 0x0F];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Writes the lowest <code>digits</code> nibbles of a value as lower case
+     * hexadecimal ASCII bytes, most significant first, at an absolute index
+     * of a buffer. The position of the buffer is not changed.
+     *
+     * @param value the value to encode
+     * @param out the buffer receiving the bytes
+     * @param index the index in out of the first byte
+     * @param digits the number of hex digits to write, at most 16
+     */
+    public static void encodeHex(long value, ByteBuffer out, int index, int digits) {
+        for (int i = index + digits - 1; i >= index; i--) {
+            out.put(i, (byte) DIGITS[(int) value & 0x0F]);
+            value >>>= 4;
+        }
+    }
+	
     /**
      * Converts an array of character bytes representing hexidecimal values into an
      * array of bytes of those same values. The returned array will be half the
@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.random;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A pool of bytes from a <code>SecureRandom</code>, read in large blocks
+ * by a background thread and handed out to callers in small slices. A
+ * <code>SecureRandom</code> typically synchronizes every call and pays a
+ * fixed cost per call besides; the pool pays it once per block, and callers
+ * claim their slice of the current block with a single atomic add.</p>
+ *
+ * <p>Two blocks are live at a time: the current one, being handed out, and
+ * a spare, filled by the refill thread. The caller that exhausts the
+ * current block swaps the spare in and wakes the refill thread to fill a
+ * new spare. Each block is a fresh array, so a slice is never handed out
+ * twice however long its reader is delayed, and every slice is zeroed as
+ * soon as it has been copied out. Should callers drain the spare before the
+ * refill thread replaces it, the first caller to notice reads a new
+ * current block itself, the others yielding meanwhile, so nobody waits on
+ * the refill thread and the source is still read a block at a time; see
+ * {@link #getFallbackCount()}.</p>
+ *
+ * <p>The refill thread is a daemon thread; {@link #close()} stops it.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public class SecureEntropyPool {
+
+    /** The default number of bytes of a block. */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /** The source of the bytes. */
+    private final SecureRandom source;
+
+    /** The number of bytes of a block. */
+    private final int blockSize;
+
+    /** The block being handed out. */
+    private final AtomicReference current = new AtomicReference();
+
+    /** The filled block next in line, or null while the refill thread fills it. */
+    private final AtomicReference spare = new AtomicReference();
+
+    /** The number of blocks read by callers because the pool had run dry. */
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /** Whether a caller is reading a block because the pool ran dry. */
+    private final AtomicBoolean helping = new AtomicBoolean();
+
+    /** The thread filling spare blocks. */
+    private final Thread refiller;
+
+    /** Whether the pool has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * <p>Constructs a pool of 64KB blocks read from a non-blocking source,
+     * the <code>NativePRNGNonBlocking</code> algorithm where available and
+     * the platform's default <code>SecureRandom</code> otherwise.</p>
+     */
+    public SecureEntropyPool() {
+        this(nonBlockingSource(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * <p>Constructs a pool. The first block is read before the constructor
+     * returns.</p>
+     *
+     * @param source the source of the bytes.
+     * @param blockSize the number of bytes read from the source at a time.
+     * @throws IllegalArgumentException if source is null or blockSize is not positive.
+     */
+    public SecureEntropyPool(SecureRandom source, int blockSize) {
+        super();
+        if (source == null) {
+            throw new IllegalArgumentException("The source must not be null.");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be positive: " + blockSize);
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+        current.set(newBlock());
+        refiller = new Thread("SecureEntropyPool refill") {
+            public void run() {
+                refill();
+            }
+        };
+        refiller.setDaemon(true);
+        refiller.start();
+    }
+
+    /**
+     * <p>Returns the number of bytes read from the source at a time.</p>
+     *
+     * @return the block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * <p>Returns how many blocks callers had to read themselves because
+     * both blocks had been used up before the refill thread replaced the
+     * spare. A count growing with the load suggests a larger block size.</p>
+     *
+     * @return the number of fallbacks since the pool was constructed.
+     */
+    public long getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    /**
+     * <p>Fills an array with random bytes.</p>
+     *
+     * @param bytes the array to fill.
+     * @throws IllegalStateException if the pool has been closed.
+     */
+    public void nextBytes(byte[] bytes) {
+        nextBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * <p>Fills part of an array with random bytes. Requests longer than a
+     * block go straight to the source.</p>
+     *
+     * @param bytes the array to fill.
+     * @param offset the index of the first byte to fill.
+     * @param length the number of bytes to fill.
+     * @throws IndexOutOfBoundsException if the range is not within bytes.
+     * @throws IllegalStateException if the pool has been closed.
+     */
+    public void nextBytes(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length
+                + " is outside an array of " + bytes.length);
+        }
+        if (closed) {
+            throw new IllegalStateException("The entropy pool has been closed.");
+        }
+        if (length > blockSize) {
+            fromSource(bytes, offset, length);
+            return;
+        }
+        while (true) {
+            Block block = (Block) current.get();
+            // test before adding, so the index of a spent block cannot run on and wrap around
+            int start = block.next.get() < blockSize ? block.next.getAndAdd(length) : blockSize;
+            if (start <= blockSize - length) {
+                // the slice belongs to this caller alone
+                System.arraycopy(block.data, start, bytes, offset, length);
+                Arrays.fill(block.data, start, start + length, (byte) 0);
+                return;
+            }
+            Block next = (Block) spare.get();
+            if (next == null) {
+                if (helping.compareAndSet(false, true)) {
+                    try {
+                        if (current.get() == block) {
+                            fallbacks.incrementAndGet();
+                            current.compareAndSet(block, newBlock());
+                        }
+                    } finally {
+                        helping.set(false);
+                    }
+                } else {
+                    Thread.yield();
+                }
+                continue;
+            }
+            if (spare.compareAndSet(next, null)) {
+                if (current.compareAndSet(block, next)) {
+                    LockSupport.unpark(refiller);
+                } else if (!spare.compareAndSet(null, next)) {
+                    // a caller that ran dry replaced the block first, and the refill thread
+                    // has already filled a new spare; this one is never handed out
+                    Arrays.fill(next.data, (byte) 0);
+                }
+            }
+            // otherwise another caller swapped the blocks first; retry either way
+        }
+    }
+
+    /**
+     * <p>Stops the refill thread. Later requests throw
+     * <code>IllegalStateException</code>.</p>
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(refiller);
+    }
+
+    /**
+     * <p>The loop of the refill thread: fills a spare block whenever there
+     * is none, and parks otherwise.</p>
+     */
+    private void refill() {
+        while (!closed) {
+            if (spare.get() == null) {
+                spare.set(newBlock());
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        spare.set(null);
+    }
+
+    /**
+     * <p>Reads a new block from the source.</p>
+     *
+     * @return the block.
+     */
+    private Block newBlock() {
+        byte[] data = new byte[blockSize];
+        source.nextBytes(data);
+        return new Block(data);
+    }
+
+    /**
+     * <p>Fills part of an array straight from the source.</p>
+     *
+     * @param bytes the array to fill.
+     * @param offset the index of the first byte to fill.
+     * @param length the number of bytes to fill.
+     */
+    private void fromSource(byte[] bytes, int offset, int length) {
+        if (offset == 0 && length == bytes.length) {
+            source.nextBytes(bytes);
+            return;
+        }
+        byte[] data = new byte[length];
+        source.nextBytes(data);
+        System.arraycopy(data, 0, bytes, offset, length);
+        Arrays.fill(data, (byte) 0);
+    }
+
+    /**
+     * <p>Returns a <code>SecureRandom</code> that does not block waiting
+     * for the operating system to gather entropy.</p>
+     *
+     * @return the source.
+     */
+    private static SecureRandom nonBlockingSource() {
+        try {
+            return SecureRandom.getInstance("NativePRNGNonBlocking");
+        } catch (NoSuchAlgorithmException nsae) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * <p>A block of bytes and the index of the first not yet handed out.</p>
+     */
+    private static final class Block {
+
+        /** The bytes. */
+        final byte[] data;
+
+        /** The index of the first byte not yet handed out; may run past the end. */
+        final AtomicInteger next = new AtomicInteger();
+
+        /**
+         * <p>Constructs a block.</p>
+         *
+         * @param data the bytes.
+         */
+        Block(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -32,6 +32,11 @@ import java.util.Random;
  * <p>Originally designed for JServ sessions. Uses synchronized count and
  * time to ensure uniqueness. Not guaranteed unique across JVMs, but
  * fairly safe nonetheless.</p>
+ *
+ * <p>The random segment comes from a <code>java.util.Random</code> shared by
+ * all instances unless one is given to the constructor, such as a
+ * {@link StripedSecureRandom} to make the segment unguessable without all
+ * threads queuing on one <code>SecureRandom</code>.</p>
 
  * @author Commons-Id team
  * @version $Id: SessionIdGenerator.java 480488 2006-11-29 08:57:26Z bayard $
@@ -75,6 +80,8 @@ public class SessionIdGenerator extends AbstractStringIdentifierGenerator implem
     private long lastTimeValue = 0;
     /** The randmonizer. */
     private static Random randomizer = new Random();
+    /** The random source of this instance, or null to use the shared one. */
+    private transient Random random;
 
     /**
      * Constructor.
@@ -83,6 +90,23 @@ public class SessionIdGenerator extends AbstractStringIdentifierGenerator implem
         super();
     }
 
+    /**
+     * Constructor taking the source of the random segment.
+     *
+     * <p>The source is not serialized; a deserialized instance uses the
+     * shared <code>Random</code>.</p>
+     *
+     * @param random the random source, for example a {@link StripedSecureRandom}.
+     * @throws IllegalArgumentException if random is null.
+     */
+    public SessionIdGenerator(Random random) {
+        super();
+        if (random == null) {
+            throw new IllegalArgumentException("The random source must not be null.");
+        }
+        this.random = random;
+    }
+
     public long maxLength() {
         return RANDOM_LENGTH + TIME_LENGTH
             + AbstractStringIdentifierGenerator.MAX_INT_ALPHANUMERIC_VALUE_LENGTH;
@@ -107,7 +131,7 @@ public class SessionIdGenerator extends AbstractStringIdentifierGenerator implem
 
         // Random value
         //--------------
-        long currentRandom = randomizer.nextLong();
+        long currentRandom = (random != null ? random : randomizer).nextLong();
         if (currentRandom < 0) {
             currentRandom = -currentRandom;
         }
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.random;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.id.HashUtils;
+
+/**
+ * <p>A <code>SecureRandom</code> that spreads its callers over several
+ * independently seeded <code>SecureRandom</code> instances, or stripes,
+ * chosen by a hash of the calling thread's id. A single
+ * <code>SecureRandom</code> synchronizes every call, so threads generating
+ * secure identifiers queue on it; with a stripe per processor they mostly
+ * run in parallel.</p>
+ *
+ * <p>Striping only helps if every stripe keeps its own state. By default
+ * the stripes are <code>DRBG</code> instances where the platform has them
+ * and <code>SHA1PRNG</code> ones otherwise. The platform's default
+ * <code>SecureRandom</code> is not used: on Unix it is
+ * <code>NativePRNG</code>, whose instances all share one global state and
+ * lock, so stripes of it would queue exactly as a single instance does. The
+ * same goes for naming a <code>NativePRNG</code> algorithm explicitly.</p>
+ *
+ * <p>Each stripe seeds itself on construction. A daemon timer thread mixes
+ * fresh seed material from a separate <code>SecureRandom</code> into every
+ * stripe at a fixed interval, so a slow or blocking
+ * <code>generateSeed</code> never delays a caller. {@link #close()} stops
+ * the timer. The reseeding is not resumed after deserialization.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public class StripedSecureRandom extends SecureRandom {
+
+    /**
+     * <code>serialVersionUID</code> is the serializable UID for the binary version of the class.
+     */
+    private static final long serialVersionUID = 20261018L;
+
+    /** The default interval between reseeds, in milliseconds: one hour. */
+    public static final long DEFAULT_RESEED_INTERVAL = 60L * 60L * 1000L;
+
+    /** The stripe algorithms tried in turn when none is named. */
+    private static final String[] DEFAULT_ALGORITHMS = {"DRBG", "SHA1PRNG"};
+
+    /** The number of bytes of seed mixed into a stripe at each reseed. */
+    private static final int SEED_LENGTH = 32;
+
+    /** The stripes; a power of two of them. */
+    private final SecureRandom[] stripes;
+
+    /** The source of seed material for reseeding. */
+    private final SecureRandom seeder;
+
+    /** The timer reseeding the stripes, or null if there is none. */
+    private transient Timer timer;
+
+    /**
+     * <p>Constructs an instance with a stripe of the default algorithm per
+     * available processor, reseeded every hour.</p>
+     */
+    public StripedSecureRandom() {
+        this(stripesFor(Runtime.getRuntime().availableProcessors()), DEFAULT_RESEED_INTERVAL);
+    }
+
+    /**
+     * <p>Constructs an instance with stripes of a named <code>SecureRandom</code>
+     * algorithm, such as <code>"SHA1PRNG"</code>. The algorithm should keep
+     * its state per instance; <code>NativePRNG</code> and its variants do
+     * not.</p>
+     *
+     * @param stripes the number of stripes, rounded up to a power of two.
+     * @param algorithm the algorithm name, or null for the default algorithm.
+     * @param provider the provider name, or null for no preferred provider.
+     * @param reseedInterval the milliseconds between reseeds, or 0 never to reseed.
+     * @throws NoSuchAlgorithmException if the algorithm is not available.
+     * @throws NoSuchProviderException if the provider is not available.
+     * @throws IllegalArgumentException if stripes is not positive or reseedInterval is negative.
+     */
+    public StripedSecureRandom(int stripes, String algorithm, String provider, long reseedInterval)
+            throws NoSuchAlgorithmException, NoSuchProviderException {
+        this(newStripes(stripes, algorithm, provider), reseedInterval);
+    }
+
+    /**
+     * <p>Constructs an instance from its stripes.</p>
+     *
+     * @param stripes the stripes.
+     * @param reseedInterval the milliseconds between reseeds, or 0 never to reseed.
+     */
+    private StripedSecureRandom(SecureRandom[] stripes, long reseedInterval) {
+        super();
+        if (reseedInterval < 0) {
+            throw new IllegalArgumentException("The reseed interval must not be negative: " + reseedInterval);
+        }
+        this.stripes = stripes;
+        this.seeder = new SecureRandom();
+        for (int i = 0; i < stripes.length; i++) {
+            // make each stripe seed itself now rather than on a caller's first request
+            stripes[i].nextBytes(new byte[1]);
+        }
+        if (reseedInterval > 0) {
+            timer = new Timer("StripedSecureRandom reseed", true);
+            timer.schedule(new TimerTask() {
+                public void run() {
+                    reseedStripes();
+                }
+            }, reseedInterval, reseedInterval);
+        }
+    }
+
+    /**
+     * <p>Returns the number of stripes.</p>
+     *
+     * @return the number of stripes, a power of two.
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * <p>Returns the algorithm name of the stripes.</p>
+     *
+     * @return the algorithm name.
+     */
+    public String getAlgorithm() {
+        return stripes[0].getAlgorithm();
+    }
+
+    /**
+     * <p>Fills an array with random bytes from the calling thread's stripe.</p>
+     *
+     * @param bytes the array to fill.
+     */
+    public void nextBytes(byte[] bytes) {
+        stripe().nextBytes(bytes);
+    }
+
+    /**
+     * <p>Returns 64 random bits from the calling thread's stripe, drawn
+     * with a single call.</p>
+     *
+     * @return a random long.
+     */
+    public long nextLong() {
+        byte[] bytes = new byte[8];
+        stripe().nextBytes(bytes);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Mixes seed material into every stripe.</p>
+     *
+     * @param seed the seed.
+     */
+    public void setSeed(byte[] seed) {
+        // SecureRandom's constructor calls setSeed before the stripes exist
+        if (stripes != null) {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i].setSeed(seed);
+            }
+        }
+    }
+
+    /**
+     * <p>Mixes seed material into every stripe.</p>
+     *
+     * @param seed the seed.
+     */
+    public void setSeed(long seed) {
+        if (stripes != null) {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i].setSeed(seed);
+            }
+        }
+    }
+
+    /**
+     * <p>Returns seed bytes from the separate seeding <code>SecureRandom</code>,
+     * which may block.</p>
+     *
+     * @param numBytes the number of bytes.
+     * @return the seed bytes.
+     */
+    public byte[] generateSeed(int numBytes) {
+        return seeder.generateSeed(numBytes);
+    }
+
+    /**
+     * <p>Stops the periodic reseeding. The stripes remain usable.</p>
+     */
+    public synchronized void close() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * <p>Mixes fresh seed material into every stripe, each its own. Not
+     * named <code>reseed</code>, which <code>SecureRandom</code> declares
+     * public from Java 9.</p>
+     */
+    private void reseedStripes() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].setSeed(seeder.generateSeed(SEED_LENGTH));
+        }
+    }
+
+    /**
+     * <p>Returns the calling thread's stripe.</p>
+     *
+     * @return the stripe.
+     */
+    private SecureRandom stripe() {
+        long id = Thread.currentThread().getId();
+        return stripes[(int) HashUtils.mix64(id) & (stripes.length - 1)];
+    }
+
+    /**
+     * <p>Creates a stripe of the default algorithm per processor.</p>
+     *
+     * @param processors the number of processors.
+     * @return the stripes.
+     */
+    private static SecureRandom[] stripesFor(int processors) {
+        try {
+            return newStripes(processors, null, null);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("Neither DRBG nor SHA1PRNG is available.");
+        } catch (NoSuchProviderException nspe) {
+            throw new IllegalStateException("Neither DRBG nor SHA1PRNG is available.");
+        }
+    }
+
+    /**
+     * <p>Creates the stripes.</p>
+     *
+     * @param count the number of stripes, rounded up to a power of two.
+     * @param algorithm the algorithm name, or null for the default algorithm.
+     * @param provider the provider name, or null for no preferred provider.
+     * @return the stripes.
+     * @throws NoSuchAlgorithmException if the algorithm is not available.
+     * @throws NoSuchProviderException if the provider is not available.
+     */
+    private static SecureRandom[] newStripes(int count, String algorithm, String provider)
+            throws NoSuchAlgorithmException, NoSuchProviderException {
+        if (count <= 0 || count > 1 << 16) {
+            throw new IllegalArgumentException("The number of stripes must be between 1 and 65536: " + count);
+        }
+        int size = Integer.highestOneBit(count);
+        if (size < count) {
+            size <<= 1;
+        }
+        if (algorithm == null) {
+            algorithm = defaultAlgorithm(provider);
+        }
+        SecureRandom[] stripes = new SecureRandom[size];
+        for (int i = 0; i < size; i++) {
+            if (provider == null) {
+                stripes[i] = SecureRandom.getInstance(algorithm);
+            } else {
+                stripes[i] = SecureRandom.getInstance(algorithm, provider);
+            }
+        }
+        return stripes;
+    }
+
+    /**
+     * <p>Returns the first of the default algorithms that is available.</p>
+     *
+     * @param provider the provider name, or null for no preferred provider.
+     * @return the algorithm name.
+     * @throws NoSuchAlgorithmException if none is available.
+     * @throws NoSuchProviderException if the provider is not available.
+     */
+    private static String defaultAlgorithm(String provider)
+            throws NoSuchAlgorithmException, NoSuchProviderException {
+        for (int i = 0; i < DEFAULT_ALGORITHMS.length - 1; i++) {
+            try {
+                if (provider == null) {
+                    SecureRandom.getInstance(DEFAULT_ALGORITHMS[i]);
+                } else {
+                    SecureRandom.getInstance(DEFAULT_ALGORITHMS[i], provider);
+                }
+                return DEFAULT_ALGORITHMS[i];
+            } catch (NoSuchAlgorithmException nsae) {
+                // try the next one
+            }
+        }
+        return DEFAULT_ALGORITHMS[DEFAULT_ALGORITHMS.length - 1];
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.random;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.id.HashUtils;
+
+/**
+ * <p>The xoshiro256** pseudo-random number generator of Blackman and Vigna:
+ * 256 bits of state, a period of 2^256 - 1, and output that passes the
+ * usual statistical test suites, at the cost of a few shifts and two
+ * multiplications per <code>long</code>. It is not cryptographically
+ * secure; use <code>SecureRandom</code> where identifiers must be
+ * unguessable.</p>
+ *
+ * <p>Unlike <code>java.util.Random</code>, instances are not thread safe.
+ * {@link #current()} returns the calling thread's own instance, so threads
+ * never contend for a shared seed. Each instance is seeded from a process
+ * wide sequence started from <code>SecureRandom</code>, expanded to the
+ * full state with SplitMix64, so instances in one or many processes produce
+ * unrelated streams.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public class Xoshiro256StarStar extends Random {
+
+    /**
+     * <code>serialVersionUID</code> is the serializable UID for the binary version of the class.
+     */
+    private static final long serialVersionUID = 20261018L;
+
+    /** The SplitMix64 increment, the odd integer closest to 2^64 / phi. */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** The seed sequence of instances constructed without a seed. */
+    private static final AtomicLong SEEDER = new AtomicLong(new SecureRandom().nextLong());
+
+    /** The instance of each thread. */
+    private static final ThreadLocal CURRENT = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Xoshiro256StarStar();
+        }
+    };
+
+    /** The state; never all zero. */
+    private long s0;
+
+    /** The state; never all zero. */
+    private long s1;
+
+    /** The state; never all zero. */
+    private long s2;
+
+    /** The state; never all zero. */
+    private long s3;
+
+    /**
+     * <p>Constructs a generator with a seed distinct from that of every
+     * other generator of this process.</p>
+     */
+    public Xoshiro256StarStar() {
+        this(HashUtils.mix64(SEEDER.addAndGet(GOLDEN_GAMMA)));
+    }
+
+    /**
+     * <p>Constructs a generator from a seed. Equal seeds give equal
+     * sequences.</p>
+     *
+     * @param seed the seed.
+     */
+    public Xoshiro256StarStar(long seed) {
+        // Random(long) calls setSeed, which fills the state
+        super(seed);
+    }
+
+    /**
+     * <p>Returns the calling thread's generator.</p>
+     *
+     * @return the generator of the current thread, never to be shared with other threads.
+     */
+    public static Xoshiro256StarStar current() {
+        return (Xoshiro256StarStar) CURRENT.get();
+    }
+
+    /**
+     * <p>Reseeds the generator, expanding the seed to 256 bits with
+     * SplitMix64.</p>
+     *
+     * @param seed the seed.
+     */
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        s0 = splitMix(seed += GOLDEN_GAMMA);
+        s1 = splitMix(seed += GOLDEN_GAMMA);
+        s2 = splitMix(seed += GOLDEN_GAMMA);
+        s3 = splitMix(seed + GOLDEN_GAMMA);
+        if ((s0 | s1 | s2 | s3) == 0) {
+            s0 = GOLDEN_GAMMA;
+        }
+    }
+
+    /**
+     * <p>Returns the next 64 pseudo-random bits.</p>
+     *
+     * @return a uniformly distributed long.
+     */
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    /**
+     * <p>Returns the next pseudo-random bits, taken from the high bits of
+     * {@link #nextLong()}; every other method of <code>Random</code> is
+     * built on this one.</p>
+     *
+     * @param bits the number of bits, 1 to 32.
+     * @return the bits in the low end of an int.
+     */
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    /**
+     * <p>Fills an array with pseudo-random bytes, eight per call of
+     * {@link #nextLong()}.</p>
+     *
+     * @param bytes the array to fill.
+     */
+    public void nextBytes(byte[] bytes) {
+        int i = 0;
+        for (int end = bytes.length & ~7; i < end; i += 8) {
+            long value = nextLong();
+            for (int j = 0; j < 8; j++, value >>>= 8) {
+                bytes[i + j] = (byte) value;
+            }
+        }
+        if (i < bytes.length) {
+            for (long value = nextLong(); i < bytes.length; i++, value >>>= 8) {
+                bytes[i] = (byte) value;
+            }
+        }
+    }
+
+    /**
+     * <p>The SplitMix64 output function.</p>
+     *
+     * @param z the counter value.
+     * @return the mixed value.
+     */
+    private static long splitMix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -96,6 +96,9 @@ public interface Constants {
     /** Version five constant for UUID version five - identical to version 3 */
     int VERSION_FIVE = 3;
 
+    /** Version eight constant for custom UUIDs, such as {@link VersionEightNameUUID} */
+    int VERSION_EIGHT = 8;
+
     /** Constants that correspond to the encoding being used, a la 
      * http://www.ietf.org/internet-drafts/draft-mealling-uuid-urn-04.txt.
      * Current legal values are "MD5" and "SHA1"
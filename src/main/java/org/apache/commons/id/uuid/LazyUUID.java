@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+/**
+ * <p>A <code>UUID</code> backed by its string form that defers parsing until
+ * the binary value is needed. Constructing a <code>LazyUUID</code> does no
+ * work at all, and {@link #toString()} returns the original string, so ids
+ * that are only passed along are never parsed.</p>
+ *
+ * <p>The first call to <code>equals</code>, <code>hashCode</code>,
+ * <code>compareTo</code>, a field accessor such as {@link #version()} or
+ * {@link #getRawBytes()} validates the string and decodes it once. A
+ * malformed string therefore surfaces as a {@link UUIDFormatException} from
+ * that first call rather than from the constructor.</p>
+ *
+ * <p>A <code>LazyUUID</code> is equal to any <code>UUID</code> with the same
+ * 128 bits. Its <code>toString</code> however is the original text, which may
+ * be upper case or carry a <code>urn:uuid:</code> prefix. It serializes as a
+ * plain <code>UUID</code>.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public class LazyUUID extends UUID {
+
+    /**
+     * <code>serialVersionUID</code> is the serializable UID for the binary version of the class.
+     */
+    private static final long serialVersionUID = 20261018L;
+
+    /** The string form this UUID was created from. */
+    private final CharSequence text;
+
+    /** The string returned by toString, created on demand unless text is a String. */
+    private String string;
+
+    /** The decoded bytes, null until first needed. */
+    private volatile byte[] decoded;
+
+    /**
+     * <p>Constructs a UUID from its string form without parsing it.</p>
+     *
+     * @param text the UUID formatted characters; must not change afterwards.
+     * @throws NullPointerException if text is null.
+     */
+    public LazyUUID(CharSequence text) {
+        super(null, true);
+        if (text == null) {
+            throw new NullPointerException("UUID text must not be null.");
+        }
+        this.text = text;
+        if (text instanceof String) {
+            string = (String) text;
+        }
+    }
+
+    /**
+     * <p>Returns the characters this UUID was created from.</p>
+     *
+     * @return the original characters.
+     */
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * <p>Returns whether the string form has been decoded yet.</p>
+     *
+     * @return true once the binary value has been needed.
+     */
+    public boolean isDecoded() {
+        return decoded != null;
+    }
+
+    /**
+     * <p>Returns the string this UUID was created from, unchanged.</p>
+     *
+     * @return the original string.
+     */
+    public String toString() {
+        if (string == null) {
+            string = text.toString();
+        }
+        return string;
+    }
+
+    /**
+     * <p>Returns the urn form of this UUID: the formatted characters of the
+     * original string prefixed with <code>urn:uuid:</code>.</p>
+     *
+     * @return Returns the urn string representation of the UUID
+     * @throws UUIDFormatException if the original string is not a valid UUID string.
+     */
+    public String toUrn() {
+        int start = UUIDStrings.start(text);
+        if (start < 0) {
+            throw new UUIDFormatException(toString());
+        }
+        return URN_PREFIX + text.subSequence(start, start + UUID_FORMATTED_LENGTH);
+    }
+
+    /**
+     * <p>Decodes the string form on first use.</p>
+     *
+     * @return the decoded bytes.
+     * @throws UUIDFormatException if the original string is not a valid UUID string.
+     */
+    byte[] bytes() {
+        byte[] raw = decoded;
+        if (raw == null) {
+            raw = UUIDStrings.decode(text);
+            decoded = raw;
+        }
+        return raw;
+    }
+
+    /**
+     * <p>Serializes this UUID as a plain <code>UUID</code>.</p>
+     *
+     * @return a UUID with the same value.
+     */
+    private Object writeReplace() {
+        return new UUID(bytes(), true);
+    }
+}
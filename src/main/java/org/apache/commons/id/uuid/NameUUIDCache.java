@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.id.HashUtils;
+
+/**
+ * <p>A bounded, thread safe cache of name-based UUIDs, placed in front of
+ * {@link UUID#nameUUIDFromString(String, UUID, String)} so that hot names
+ * are digested only once. Entries are keyed by namespace, encoding and the
+ * characters of the name.</p>
+ *
+ * <p>The cache is split into stripes, each guarded by its own lock and
+ * managed as a segmented LRU: a new entry starts in a probationary segment
+ * and moves to a protected segment, holding up to 80% of the stripe, on its
+ * second hit. Entries evicted from the protected segment return to the
+ * probationary one, and entries are discarded from the probationary
+ * segment's least recently used end. Names seen once therefore cannot
+ * flush out the names that are used over and over.</p>
+ *
+ * <p>The size limit is in bytes, estimated per entry as a fixed overhead
+ * plus two bytes per character of the name. Digests are computed outside
+ * the locks.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class NameUUIDCache implements Constants {
+
+    /** The estimated bytes of an entry besides the name's characters. */
+    static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    /** The default number of stripes. */
+    private static final int DEFAULT_CONCURRENCY = 16;
+
+    /** The share of a stripe's bytes the protected segment may hold, in percent. */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** The stripes. */
+    private final Stripe[] stripes;
+
+    /** The number of lookups answered from the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of lookups that computed the UUID. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The number of entries discarded to respect the size limit. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * <p>Constructs a cache with the default number of stripes.</p>
+     *
+     * @param maxBytes the estimated number of bytes the cache may hold.
+     * @throws IllegalArgumentException if maxBytes is not positive.
+     */
+    public NameUUIDCache(long maxBytes) {
+        this(maxBytes, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * <p>Constructs a cache.</p>
+     *
+     * @param maxBytes the estimated number of bytes the cache may hold.
+     * @param concurrency the expected number of threads using the cache at
+     *  once; rounded up to a power of two stripes.
+     * @throws IllegalArgumentException if maxBytes or concurrency is not positive.
+     */
+    public NameUUIDCache(long maxBytes, int concurrency) {
+        super();
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The size limit must be positive.");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("The concurrency must be positive.");
+        }
+        int count = 1;
+        while (count < concurrency && count < 1 << 16) {
+            count <<= 1;
+        }
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(maxBytes / count);
+        }
+    }
+
+    /**
+     * <p>Returns the MD5 (version 3) name-based UUID of a name.</p>
+     *
+     * @param name the name.
+     * @param namespace the namespace UUID.
+     * @return the same UUID as <code>UUID.nameUUIDFromString(name, namespace)</code>.
+     */
+    public UUID get(String name, UUID namespace) {
+        return get(name, namespace, MD5_ENCODING);
+    }
+
+    /**
+     * <p>Returns the name-based UUID of a name, from the cache if possible.</p>
+     *
+     * @param name the name.
+     * @param namespace the namespace UUID.
+     * @param encoding {@link #MD5_ENCODING} or {@link #SHA1_ENCODING}.
+     * @return the same UUID as <code>UUID.nameUUIDFromString(name, namespace, encoding)</code>.
+     * @throws RuntimeException if the encoding is not supported.
+     */
+    public UUID get(String name, UUID namespace, String encoding) {
+        Key key = new Key(name, namespace.getMostSignificantBits(),
+                namespace.getLeastSignificantBits(), encoding);
+        Stripe stripe = stripes[key.hash >>> 1 & (stripes.length - 1)];
+        UUID uuid = stripe.get(key);
+        if (uuid != null) {
+            hits.incrementAndGet();
+            return uuid;
+        }
+        misses.incrementAndGet();
+        uuid = UUID.nameUUIDFromString(name, namespace, encoding);
+        evictions.addAndGet(stripe.put(key, uuid));
+        return uuid;
+    }
+
+    /**
+     * <p>Returns the number of lookups answered from the cache.</p>
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * <p>Returns the number of lookups that had to compute the UUID.</p>
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * <p>Returns the number of entries discarded to respect the size limit.</p>
+     *
+     * @return the eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * <p>Returns the number of cached entries.</p>
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            size += stripes[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * <p>Returns the estimated number of bytes held.</p>
+     *
+     * @return the estimated size in bytes.
+     */
+    public long getWeightBytes() {
+        long bytes = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            bytes += stripes[i].weight();
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>Removes every entry. The counters are kept.</p>
+     */
+    public void clear() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].clear();
+        }
+    }
+
+    /**
+     * <p>Returns the estimated bytes of an entry.</p>
+     *
+     * @param key the entry's key.
+     * @return the estimated size in bytes.
+     */
+    static long weigh(Key key) {
+        return ENTRY_OVERHEAD_BYTES + 2L * key.name.length();
+    }
+
+    /**
+     * <p>The key of an entry.</p>
+     */
+    static final class Key {
+
+        /** The name. */
+        final String name;
+
+        /** The namespace's most significant bits. */
+        private final long namespaceMost;
+
+        /** The namespace's least significant bits. */
+        private final long namespaceLeast;
+
+        /** Whether the UUID is SHA-1 rather than MD5 based. */
+        private final boolean sha1;
+
+        /** The precomputed hash. */
+        final int hash;
+
+        /**
+         * <p>Constructs a key.</p>
+         *
+         * @param name the name.
+         * @param namespaceMost the namespace's most significant bits.
+         * @param namespaceLeast the namespace's least significant bits.
+         * @param encoding the digest name.
+         * @throws RuntimeException if the encoding is not supported, as
+         *  <code>UUID.nameUUIDFromString</code> throws.
+         */
+        Key(String name, long namespaceMost, long namespaceLeast, String encoding) {
+            this.name = name;
+            this.namespaceMost = namespaceMost;
+            this.namespaceLeast = namespaceLeast;
+            if (SHA1_ENCODING.equals(encoding)) {
+                this.sha1 = true;
+            } else if (MD5_ENCODING.equals(encoding)) {
+                this.sha1 = false;
+            } else {
+                // validated up front so that a cached entry never answers for an unknown encoding
+                throw new RuntimeException("Unsupported encoding " + encoding);
+            }
+            long h = HashUtils.hash128To64(namespaceMost, namespaceLeast) + name.hashCode();
+            this.hash = (int) HashUtils.mix64(sha1 ? ~h : h);
+        }
+
+        /**
+         * @see java.lang.Object#equals(Object)
+         */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && namespaceMost == other.namespaceMost
+                    && namespaceLeast == other.namespaceLeast && sha1 == other.sha1
+                    && name.equals(other.name);
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * <p>One stripe: a segmented LRU guarded by the stripe's monitor.</p>
+     */
+    private static final class Stripe {
+
+        /** Entries hit at most once, in access order. */
+        private final LinkedHashMap probation = new LinkedHashMap(16, 0.75f, true);
+
+        /** Entries hit more than once, in access order. */
+        private final LinkedHashMap protectedSegment = new LinkedHashMap(16, 0.75f, true);
+
+        /** The byte limit of the stripe. */
+        private final long maxBytes;
+
+        /** The byte limit of the protected segment. */
+        private final long maxProtectedBytes;
+
+        /** The bytes held by the probationary segment. */
+        private long probationBytes;
+
+        /** The bytes held by the protected segment. */
+        private long protectedBytes;
+
+        /**
+         * <p>Constructs an empty stripe.</p>
+         *
+         * @param maxBytes the byte limit of the stripe.
+         */
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.maxProtectedBytes = maxBytes / 100 * PROTECTED_PERCENT;
+        }
+
+        /**
+         * <p>Looks up a key, promoting a probationary entry on its hit.</p>
+         *
+         * @param key the key.
+         * @return the cached UUID, or null.
+         */
+        synchronized UUID get(Key key) {
+            UUID uuid = (UUID) protectedSegment.get(key);
+            if (uuid != null) {
+                return uuid;
+            }
+            uuid = (UUID) probation.remove(key);
+            if (uuid == null) {
+                return null;
+            }
+            long weight = weigh(key);
+            probationBytes -= weight;
+            protectedSegment.put(key, uuid);
+            protectedBytes += weight;
+            // demote the protected segment's least recently used entries
+            Iterator it = protectedSegment.entrySet().iterator();
+            while (protectedBytes > maxProtectedBytes && it.hasNext()) {
+                Map.Entry entry = (Map.Entry) it.next();
+                if (entry.getKey() == key) {
+                    break;
+                }
+                it.remove();
+                long demoted = weigh((Key) entry.getKey());
+                protectedBytes -= demoted;
+                probation.put(entry.getKey(), entry.getValue());
+                probationBytes += demoted;
+            }
+            return uuid;
+        }
+
+        /**
+         * <p>Adds an entry to the probationary segment unless another thread
+         * added it first, then evicts down to the byte limit.</p>
+         *
+         * @param key the key.
+         * @param uuid the UUID.
+         * @return the number of entries evicted.
+         */
+        synchronized int put(Key key, UUID uuid) {
+            if (protectedSegment.containsKey(key) || probation.containsKey(key)) {
+                return 0;
+            }
+            long weight = weigh(key);
+            if (weight > maxBytes) {
+                return 0;
+            }
+            probation.put(key, uuid);
+            probationBytes += weight;
+            int evicted = 0;
+            Iterator it = probation.keySet().iterator();
+            while (probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+                Key eldest = (Key) it.next();
+                it.remove();
+                probationBytes -= weigh(eldest);
+                evicted++;
+            }
+            return evicted;
+        }
+
+        /**
+         * <p>Returns the number of entries.</p>
+         *
+         * @return the number of entries.
+         */
+        synchronized int size() {
+            return probation.size() + protectedSegment.size();
+        }
+
+        /**
+         * <p>Returns the estimated bytes held.</p>
+         *
+         * @return the estimated size in bytes.
+         */
+        synchronized long weight() {
+            return probationBytes + protectedBytes;
+        }
+
+        /**
+         * <p>Removes every entry.</p>
+         */
+        synchronized void clear() {
+            probation.clear();
+            protectedSegment.clear();
+            probationBytes = 0;
+            protectedBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import org.apache.commons.id.IdentifierGenerator;
+import org.apache.commons.id.random.Xoshiro256StarStar;
+
+/**
+ * <p>Generates version 4 UUID's per RFC 4122 whose routing bits select a
+ * requested shard, so that an id can be created directly on the node that
+ * will own it.</p>
+ *
+ * <p>The routing bits are the 32 most significant bits of the UUID (the
+ * <code>time_low</code> field, which is entirely random in a version 4
+ * UUID). Treated as an unsigned integer <code>r</code>, they map to a shard
+ * by <code>(r * shards) &gt;&gt;&gt; 32</code>; see
+ * {@link #shardOf(long, int)}. This splits the 32-bit space into
+ * <code>shards</code> contiguous, nearly equal ranges.</p>
+ *
+ * <p><b>This mapping is not that of {@link UUIDSharder}</b>, whose jump
+ * consistent hash of all 128 bits cannot be targeted without rejection
+ * sampling. A UUID created here for shard <i>k</i> is in general not routed
+ * to <i>k</i> by a <code>UUIDSharder</code>. Services must route the ids of
+ * this generator with {@link #shardOf(UUID, int)} and the same number of
+ * shards. Unlike a jump hash, this mapping moves most ids when the number of
+ * shards changes.</p>
+ *
+ * <p>Ids are constructed directly rather than by rejection sampling: the
+ * routing bits are drawn uniformly from the range owned by the requested
+ * shard, every other bit comes straight from the random source. A generated
+ * UUID therefore keeps about <code>122 - log2(shards)</code> random bits
+ * and costs the same as an ordinary version 4 UUID. Random bits come from
+ * the calling thread's {@link Xoshiro256StarStar}, so threads never
+ * contend.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class ShardedVersionFourGenerator implements IdentifierGenerator, Constants {
+
+    /** Mask of the low 32 bits of a long. */
+    private static final long LOW_32_BITS = 0xFFFFFFFFL;
+
+    /** Clears the version nibble of the most significant long. */
+    private static final long VERSION_CLEAR_MASK = 0xFFFFFFFFFFFF0FFFL;
+
+    /** The version nibble of the most significant long. */
+    private static final long VERSION_FOUR_BITS = ((long) VERSION_FOUR) << 12;
+
+    /** Clears the variant bits of the least significant long. */
+    private static final long VARIANT_CLEAR_MASK = 0x3FFFFFFFFFFFFFFFL;
+
+    /** The IETF variant bits of the least significant long. */
+    private static final long VARIANT_IETF_BITS = 0x8000000000000000L;
+
+    /** The number of shards ids are routed to. */
+    private final int shards;
+
+    /** The shard targeted by {@link #nextIdentifier()}. */
+    private final int localShard;
+
+    /**
+     * <p>Constructs a generator for the given number of shards whose
+     * {@link #nextIdentifier()} targets <code>localShard</code>.</p>
+     *
+     * @param shards the number of shards, must be positive.
+     * @param localShard the shard targeted by default, in <code>[0, shards)</code>.
+     * @throws IllegalArgumentException if either argument is out of range.
+     */
+    public ShardedVersionFourGenerator(int shards, int localShard) {
+        super();
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive.");
+        }
+        this.shards = shards;
+        this.localShard = checkShard(localShard);
+    }
+
+    /**
+     * <p>Returns the number of shards ids are routed to.</p>
+     *
+     * @return the number of shards.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * <p>Returns the shard targeted by {@link #nextIdentifier()}.</p>
+     *
+     * @return the default shard.
+     */
+    public int getLocalShard() {
+        return localShard;
+    }
+
+    /**
+     * <p>Returns a new version four UUID owned by the local shard.</p>
+     *
+     * @return Object a new version 4 UUID.
+     */
+    public Object nextIdentifier() {
+        return nextUUID(localShard);
+    }
+
+    /**
+     * <p>Returns a new version four UUID owned by the local shard.</p>
+     *
+     * @return a new version 4 UUID.
+     */
+    public UUID nextUUID() {
+        return nextUUID(localShard);
+    }
+
+    /**
+     * <p>Returns a new version four UUID owned by the given shard.</p>
+     *
+     * @param shard the shard that must own the UUID, in <code>[0, shards)</code>.
+     * @return a new version 4 UUID for which <code>shardOf(uuid, shards) == shard</code>.
+     * @throws IllegalArgumentException if shard is out of range.
+     */
+    public UUID nextUUID(int shard) {
+        checkShard(shard);
+        Xoshiro256StarStar random = Xoshiro256StarStar.current();
+        long msb = random.nextLong();
+        long lsb = random.nextLong();
+
+        // [first, end) is the range of routing values owned by the shard
+        long first = firstRoutingValue(shard, shards);
+        long width = firstRoutingValue(shard + 1, shards) - first;
+        long routing = first + (((msb >>> 32) * width) >>> 32);
+
+        msb = (routing << 32) | (msb & LOW_32_BITS);
+        msb = (msb & VERSION_CLEAR_MASK) | VERSION_FOUR_BITS;
+        lsb = (lsb & VARIANT_CLEAR_MASK) | VARIANT_IETF_BITS;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * <p>Returns the shard owning a UUID under this routing scheme.</p>
+     *
+     * @param uuid the UUID to route.
+     * @param shards the number of shards, must be positive.
+     * @return the shard index, in <code>[0, shards)</code>.
+     */
+    public static int shardOf(UUID uuid, int shards) {
+        return shardOf(uuid.getMostSignificantBits(), shards);
+    }
+
+    /**
+     * <p>Returns the shard owning a UUID under this routing scheme:
+     * <code>((msb &gt;&gt;&gt; 32) * shards) &gt;&gt;&gt; 32</code>.</p>
+     *
+     * @param mostSignificant the most significant 64 bits of the UUID.
+     * @param shards the number of shards, must be positive.
+     * @return the shard index, in <code>[0, shards)</code>.
+     */
+    public static int shardOf(long mostSignificant, int shards) {
+        return (int) (((mostSignificant >>> 32) * shards) >>> 32);
+    }
+
+    /**
+     * <p>Returns the smallest routing value mapped to a shard, that is
+     * <code>ceil(shard * 2^32 / shards)</code>.</p>
+     *
+     * @param shard the shard, in <code>[0, shards]</code>.
+     * @param shards the number of shards.
+     * @return the first routing value owned by shard.
+     */
+    private static long firstRoutingValue(int shard, int shards) {
+        return ((((long) shard) << 32) + shards - 1) / shards;
+    }
+
+    /**
+     * <p>Validates a shard index.</p>
+     *
+     * @param shard the shard index to check.
+     * @return the shard index.
+     * @throws IllegalArgumentException if shard is out of range.
+     */
+    private int checkShard(int shard) {
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Shard " + shard + " is not in [0, " + shards + ").");
+        }
+        return shard;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.id.AbstractStringIdentifierGenerator;
+import org.apache.commons.id.Hex;
+import org.apache.commons.id.random.Xoshiro256StarStar;
+
+/**
+ * <p>Generates the identifiers of the W3C Trace Context recommendation:
+ * 128-bit trace ids and 64-bit span ids, never all zero, and the
+ * <code>traceparent</code> header combining them,</p>
+ *
+ * <pre>
+ * 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01
+ * </pre>
+ *
+ * <p>Random bits come from the calling thread's
+ * {@link Xoshiro256StarStar}, so generation takes no lock and threads never
+ * contend. The <code>write</code> and <code>put</code> methods emit lower
+ * case hex straight into a caller's <code>byte[]</code> or
+ * <code>ByteBuffer</code> and allocate nothing; only
+ * {@link #nextStringIdentifier()} builds a string. Like
+ * {@link VersionFourGenerator} without the secure option, the ids are
+ * unique with overwhelming probability but not unguessable.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class TraceContextGenerator extends AbstractStringIdentifierGenerator {
+
+    /** The number of hex characters of a trace id. */
+    public static final int TRACE_ID_LENGTH = 32;
+
+    /** The number of hex characters of a span id. */
+    public static final int SPAN_ID_LENGTH = 16;
+
+    /** The number of characters of a version 00 <code>traceparent</code> header. */
+    public static final int TRACEPARENT_LENGTH = 55;
+
+    /** The <code>sampled</code> trace flag. */
+    public static final int FLAG_SAMPLED = 0x01;
+
+    /** The ASCII code of the dash. */
+    private static final byte DASH = '-';
+
+    /** The ASCII code of the zero digit. */
+    private static final byte ZERO = '0';
+
+    /** The trace flags of the headers this generator creates. */
+    private final int flags;
+
+    /**
+     * <p>Constructs a generator of sampled trace contexts.</p>
+     */
+    public TraceContextGenerator() {
+        this(true);
+    }
+
+    /**
+     * <p>Constructs a generator.</p>
+     *
+     * @param sampled whether the headers created set the sampled flag.
+     */
+    public TraceContextGenerator(boolean sampled) {
+        super();
+        this.flags = sampled ? FLAG_SAMPLED : 0;
+    }
+
+    /**
+     * <p>Returns a <code>traceparent</code> header starting a new trace.</p>
+     *
+     * @return the 55 character header value.
+     */
+    public String nextStringIdentifier() {
+        byte[] header = new byte[TRACEPARENT_LENGTH];
+        writeTraceparent(header, 0);
+        char[] chars = new char[TRACEPARENT_LENGTH];
+        for (int i = 0; i < TRACEPARENT_LENGTH; i++) {
+            chars[i] = (char) header[i];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * <p>Returns the length of a <code>traceparent</code> header.</p>
+     *
+     * @return {@link #TRACEPARENT_LENGTH}.
+     */
+    public long maxLength() {
+        return TRACEPARENT_LENGTH;
+    }
+
+    /**
+     * <p>Returns the length of a <code>traceparent</code> header.</p>
+     *
+     * @return {@link #TRACEPARENT_LENGTH}.
+     */
+    public long minLength() {
+        return TRACEPARENT_LENGTH;
+    }
+
+    /**
+     * <p>Writes a <code>traceparent</code> header starting a new trace, with
+     * a new trace id, a new span id and this generator's flags.</p>
+     *
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     * @return the index after the last character written.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    public int writeTraceparent(byte[] out, int offset) {
+        Xoshiro256StarStar random = Xoshiro256StarStar.current();
+        long high = random.nextLong();
+        long low = nextTraceIdLow(random, high);
+        return writeTraceparent(high, low, nextSpanId(random), flags, out, offset);
+    }
+
+    /**
+     * <p>Puts a <code>traceparent</code> header starting a new trace at the
+     * position of a buffer, and advances the position past it.</p>
+     *
+     * @param out the buffer.
+     * @throws BufferOverflowException if fewer than 55 bytes remain.
+     */
+    public void putTraceparent(ByteBuffer out) {
+        Xoshiro256StarStar random = Xoshiro256StarStar.current();
+        long high = random.nextLong();
+        long low = nextTraceIdLow(random, high);
+        putTraceparent(high, low, nextSpanId(random), flags, out);
+    }
+
+    /**
+     * <p>Returns a new span id.</p>
+     *
+     * @return a random non-zero long.
+     */
+    public static long nextSpanId() {
+        return nextSpanId(Xoshiro256StarStar.current());
+    }
+
+    /**
+     * <p>Returns a new span id.</p>
+     *
+     * @param random the current thread's generator.
+     * @return a random non-zero long.
+     */
+    private static long nextSpanId(Xoshiro256StarStar random) {
+        long id;
+        do {
+            id = random.nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * <p>Returns the low half of a new trace id, never zero when the high
+     * half is, as a trace id must not be all zero.</p>
+     *
+     * @param random the current thread's generator.
+     * @param high the high half of the trace id, already drawn.
+     * @return a random long.
+     */
+    private static long nextTraceIdLow(Xoshiro256StarStar random, long high) {
+        long low;
+        do {
+            low = random.nextLong();
+        } while ((high | low) == 0);
+        return low;
+    }
+
+    /**
+     * <p>Writes a new trace id as 32 hex characters.</p>
+     *
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     * @return the index after the last character written.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    public static int writeTraceId(byte[] out, int offset) {
+        checkRoom(out, offset, TRACE_ID_LENGTH);
+        Xoshiro256StarStar random = Xoshiro256StarStar.current();
+        long high = random.nextLong();
+        long low = nextTraceIdLow(random, high);
+        Hex.encodeHex(high, out, offset, 16);
+        Hex.encodeHex(low, out, offset + 16, 16);
+        return offset + TRACE_ID_LENGTH;
+    }
+
+    /**
+     * <p>Writes a new span id as 16 hex characters.</p>
+     *
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     * @return the index after the last character written.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    public static int writeSpanId(byte[] out, int offset) {
+        checkRoom(out, offset, SPAN_ID_LENGTH);
+        Hex.encodeHex(nextSpanId(), out, offset, 16);
+        return offset + SPAN_ID_LENGTH;
+    }
+
+    /**
+     * <p>Writes a <code>traceparent</code> header from its fields, for
+     * example to continue an incoming trace with a new span.</p>
+     *
+     * @param traceIdHigh the high 64 bits of the trace id.
+     * @param traceIdLow the low 64 bits of the trace id.
+     * @param spanId the span id, or parent id in the header's terms.
+     * @param flags the trace flags, such as {@link #FLAG_SAMPLED}.
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     * @return the index after the last character written.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    public static int writeTraceparent(long traceIdHigh, long traceIdLow, long spanId, int flags,
+            byte[] out, int offset) {
+        checkRoom(out, offset, TRACEPARENT_LENGTH);
+        out[offset] = ZERO;
+        out[offset + 1] = ZERO;
+        out[offset + 2] = DASH;
+        Hex.encodeHex(traceIdHigh, out, offset + 3, 16);
+        Hex.encodeHex(traceIdLow, out, offset + 19, 16);
+        out[offset + 35] = DASH;
+        Hex.encodeHex(spanId, out, offset + 36, 16);
+        out[offset + 52] = DASH;
+        Hex.encodeHex(flags, out, offset + 53, 2);
+        return offset + TRACEPARENT_LENGTH;
+    }
+
+    /**
+     * <p>Puts a <code>traceparent</code> header from its fields at the
+     * position of a buffer, and advances the position past it.</p>
+     *
+     * @param traceIdHigh the high 64 bits of the trace id.
+     * @param traceIdLow the low 64 bits of the trace id.
+     * @param spanId the span id, or parent id in the header's terms.
+     * @param flags the trace flags, such as {@link #FLAG_SAMPLED}.
+     * @param out the buffer.
+     * @throws BufferOverflowException if fewer than 55 bytes remain.
+     */
+    public static void putTraceparent(long traceIdHigh, long traceIdLow, long spanId, int flags,
+            ByteBuffer out) {
+        if (out.remaining() < TRACEPARENT_LENGTH) {
+            throw new BufferOverflowException();
+        }
+        int index = out.position();
+        out.position(index + TRACEPARENT_LENGTH);
+        out.put(index, ZERO);
+        out.put(index + 1, ZERO);
+        out.put(index + 2, DASH);
+        Hex.encodeHex(traceIdHigh, out, index + 3, 16);
+        Hex.encodeHex(traceIdLow, out, index + 19, 16);
+        out.put(index + 35, DASH);
+        Hex.encodeHex(spanId, out, index + 36, 16);
+        out.put(index + 52, DASH);
+        Hex.encodeHex(flags, out, index + 53, 2);
+    }
+
+    /**
+     * <p>Checks that an array has room for some characters.</p>
+     *
+     * @param out the array.
+     * @param offset the index of the first character.
+     * @param length the number of characters.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    private static void checkRoom(byte[] out, int offset, int length) {
+        if (offset < 0 || offset > out.length - length) {
+            throw new IndexOutOfBoundsException("No room for " + length + " bytes at " + offset);
+        }
+    }
+}
@@ -16,14 +16,11 @@
  */
 package org.apache.commons.id.uuid;
 
-import org.apache.commons.id.DecoderException;
 import org.apache.commons.id.DigestUtils;
-import org.apache.commons.id.Hex;
 
 import java.io.DataInput;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.StringTokenizer;
 
 
 /**
@@ -39,8 +36,14 @@ import java.util.StringTokenizer;
 
 public class UUID implements Constants, Serializable, Comparable {
 	
+	/**
+	 * <code>serialVersionUID</code> is the serializable UID for the binary version of the class,
+	 * fixed at the value computed for the original release so that serialized UUIDs stay readable.
+	 */
+	private static final long serialVersionUID = 1720374579554376327L;
+	
 	/** byte array to store 128-bits composing this UUID */
-	private byte[] rawBytes = new byte[UUID_BYTE_LENGTH];
+	private byte[] rawBytes;
 	
 	/** Holds node identifier for this UUID */
 	private Long node = null;
@@ -63,6 +66,7 @@ public class UUID implements Constants, Serializable, Comparable {
 	/** Constructs a nil UUID */
 	public UUID() {
 		super();
+		rawBytes = new byte[UUID_BYTE_LENGTH];
 	}
 	
 	/**
@@ -103,9 +107,22 @@ public class UUID implements Constants, Serializable, Comparable {
 			throw new IllegalArgumentException("UUID must be contructed using a 16 byte array.");
 		}
 		// UUID must be immutable so a copy is used.
+		rawBytes = new byte[UUID_BYTE_LENGTH];
 		System.arraycopy(byteArray, 0, rawBytes, 0, UUID_BYTE_LENGTH);
 	}
 	
+	/**
+	 * <p>Constructs a UUID that takes ownership of a 16 byte array without copying it. Subclasses
+	 * that decode their bytes on demand pass null and override {@link #bytes()}.</p>
+	 *
+	 * @param rawBytes the 16 byte array this UUID now owns, or null.
+	 * @param owned marker distinguishing this constructor from the copying one, always true.
+	 */
+	UUID(byte[] rawBytes, boolean owned) {
+		super();
+		this.rawBytes = rawBytes;
+	}
+	
 	/**
 	 * <p>Constructs a UUID from a DataInput. Note if 16 bytes are not available this method will block.</p>
 	 *
@@ -114,6 +131,7 @@ public class UUID implements Constants, Serializable, Comparable {
 	 */
 	public UUID(DataInput input) throws IOException {
 		super();
+		rawBytes = new byte[UUID_BYTE_LENGTH];
 		input.readFully(rawBytes, 0, UUID_BYTE_LENGTH);
 	}
 	
@@ -124,7 +142,16 @@ public class UUID implements Constants, Serializable, Comparable {
 	 * @param leastSignificant - the least significant 8 bytes of the uuid to be constructed.
 	 */
 	public UUID(long mostSignificant, long leastSignificant) {
-		rawBytes = Bytes.append(Bytes.toBytes(mostSignificant), Bytes.toBytes(leastSignificant));
+		super();
+		// a single array, written directly; this constructor is on the path of every generated UUID
+		byte[] raw = new byte[UUID_BYTE_LENGTH];
+		for (int i = 7; i >= 0; i--) {
+			raw[i] = (byte) mostSignificant;
+			raw[i + 8] = (byte) leastSignificant;
+			mostSignificant >>>= 8;
+			leastSignificant >>>= 8;
+		}
+		rawBytes = raw;
 	}
 	
 	/**
@@ -134,8 +161,8 @@ public class UUID implements Constants, Serializable, Comparable {
 	 *  @throws UUIDFormatException String must be a properly formatted UUID string
 	 */
 	public UUID(String uuidString) throws UUIDFormatException {
-		//Calls the copy constructor
-		this(UUID.fromString(uuidString));
+		//Parses straight into the byte array this UUID owns
+		this(UUIDStrings.decode(uuidString), true);
 	}
 	
 	/**
@@ -147,47 +174,7 @@ public class UUID implements Constants, Serializable, Comparable {
 	 */
 	public static UUID fromString(String uuidString)
 	throws UUIDFormatException {
-		String leanString = uuidString.toLowerCase();
-		UUID tmpUUID = null;
-		
-		//Handle prefixed UUIDs
-		// e.g. urn:uuid:f81d4fae-7dec-11d0-a765-00a0c91e6bf6
-		int pos = uuidString.lastIndexOf(":");
-		if (pos > 1) {
-			leanString = uuidString.substring(++pos, uuidString.length());
-		}
-		
-		//Check for 36 char length
-		if (leanString.length() != UUID_FORMATTED_LENGTH) {
-			throw new UUIDFormatException(uuidString);
-		}
-		
-		//Check for 5 fields
-		StringTokenizer tok = new StringTokenizer(leanString, "-");
-		if ( tok.countTokens() != TOKENS_IN_UUID ) {
-			throw new UUIDFormatException(uuidString);
-		}
-		
-		//Remove the "-" from the formatted string and test token sizes
-		StringBuffer buf = new StringBuffer(UUID_UNFORMATTED_LENGTH);
-		String token = null;
-		int count = 0;
-		while (tok.hasMoreTokens()) {
-			token = tok.nextToken();
-			if (token.length() != TOKEN_LENGTHS[count++]) {
-				throw new UUIDFormatException(uuidString);
-			}
-			buf.append(token);
-		}
-		
-		//Create from the hex value
-		try {
-			char[] chars = buf.toString().toCharArray();
-			tmpUUID = new UUID(Hex.decodeHex(chars));
-		} catch (DecoderException de) {
-			throw new UUIDFormatException(uuidString + ": " + de.getMessage());
-		}
-		return tmpUUID;
+		return new UUID(UUIDStrings.decode(uuidString), true);
 	}
 	
 	/**
@@ -198,16 +185,7 @@ public class UUID implements Constants, Serializable, Comparable {
 	public String toString() {
 		//set string value if not set
 		if (stringValue == null) {
-			StringBuffer buf = new StringBuffer(new String(Hex.encodeHex(rawBytes)));
-			while (buf.length() != UUID_UNFORMATTED_LENGTH) {
-				buf.insert(0, "0");
-			}
-			buf.ensureCapacity(UUID_FORMATTED_LENGTH);
-			buf.insert(FORMAT_POSITION1, '-');
-			buf.insert(FORMAT_POSITION2, '-');
-			buf.insert(FORMAT_POSITION3, '-');
-			buf.insert(FORMAT_POSITION4, '-');
-			stringValue = buf.toString();
+			stringValue = UUIDStrings.format(getMostSignificantBits(), getLeastSignificantBits());
 		}
 		return stringValue;
 	}
@@ -232,7 +210,9 @@ public class UUID implements Constants, Serializable, Comparable {
 		if (!(obj instanceof UUID)) {
 			return false;
 		}
-		return Bytes.areEqual( ((UUID) obj).getRawBytes(), rawBytes);
+		UUID other = (UUID) obj;
+		return getMostSignificantBits() == other.getMostSignificantBits()
+			&& getLeastSignificantBits() == other.getLeastSignificantBits();
 	}
 	
 	/**
@@ -241,10 +221,84 @@ public class UUID implements Constants, Serializable, Comparable {
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
+		byte[] raw = bytes();
 		int iConstant = 37;
 		int iTotal = 17;
-		for (int i = 0; i < rawBytes.length; i++) {
-			iTotal = iTotal * iConstant + rawBytes[i];
+		for (int i = 0; i < raw.length; i++) {
+			iTotal = iTotal * iConstant + raw[i];
+		}
+		return iTotal;
+	}
+	
+	/**
+	 * <p>Returns the hash code a UUID with the given most and least significant bits has, without
+	 * creating the UUID.</p>
+	 *
+	 * @param mostSignificant the most significant 64 bits.
+	 * @param leastSignificant the least significant 64 bits.
+	 * @return the value {@link #hashCode()} returns for that UUID.
+	 */
+	public static int hashCode(long mostSignificant, long leastSignificant) {
+		int iConstant = 37;
+		int iTotal = 17;
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			iTotal = iTotal * iConstant + (byte) (mostSignificant >>> shift);
+		}
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			iTotal = iTotal * iConstant + (byte) (leastSignificant >>> shift);
+		}
+		return iTotal;
+	}
+	
+	/**
+	 * <p>Compares this UUID with a UUID string without parsing the string. The string may be in
+	 * any form {@link #fromString(String)} accepts; the hex digits are decoded as they are compared
+	 * and the comparison stops at the first difference. Nothing is allocated.</p>
+	 *
+	 * @param uuidString the UUID string to compare with.
+	 * @return true if the string is a valid UUID string for the same 128 bits; false otherwise,
+	 *  including when the string is null or malformed.
+	 */
+	public boolean equalsString(CharSequence uuidString) {
+		if (uuidString == null) {
+			return false;
+		}
+		int start = UUIDStrings.start(uuidString);
+		if (start < 0 || !UUIDStrings.hasDashes(uuidString, start)) {
+			return false;
+		}
+		byte[] raw = bytes();
+		for (int i = 0; i < UUID_BYTE_LENGTH; i++) {
+			if (UUIDStrings.byteAt(uuidString, start, i) != (raw[i] & 0xFF)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>Returns the hash code the UUID a string represents has, without parsing the string into
+	 * a UUID. This allows probing UUID keyed hash tables with an incoming string.</p>
+	 *
+	 * @param uuidString a string in any form {@link #fromString(String)} accepts.
+	 * @return the value {@link #hashCode()} returns for that UUID.
+	 * @throws UUIDFormatException if the string is not a valid UUID string.
+	 */
+	public static int hashOf(CharSequence uuidString) throws UUIDFormatException {
+		int start = UUIDStrings.start(uuidString);
+		if (start < 0 || !UUIDStrings.hasDashes(uuidString, start)) {
+			throw new UUIDFormatException(uuidString.toString());
+		}
+		int iConstant = 37;
+		int iTotal = 17;
+		int bad = 0;
+		for (int i = 0; i < UUID_BYTE_LENGTH; i++) {
+			int b = UUIDStrings.byteAt(uuidString, start, i);
+			bad |= b;
+			iTotal = iTotal * iConstant + (byte) b;
+		}
+		if (bad < 0) {
+			throw new UUIDFormatException(uuidString.toString());
 		}
 		return iTotal;
 	}
@@ -258,7 +312,30 @@ public class UUID implements Constants, Serializable, Comparable {
 		if (!(compareTo instanceof UUID)) {
 			throw new ClassCastException();
 		}
-		return (Bytes.compareTo(rawBytes, ((UUID) compareTo).getRawBytes()));
+		return (Bytes.compareTo(bytes(), ((UUID) compareTo).bytes()));
+	}
+	
+	/**
+	 * <p>Compares two UUID's given by their most and least significant bits as unsigned 128-bit
+	 * numbers, the lexical order RFC 4122 specifies. This is not the order of
+	 * {@link #compareTo(Object)}, which compares the bytes as signed values and is kept for
+	 * compatibility; the packed containers and codecs of this package use this order.</p>
+	 *
+	 * @param lhsMost the most significant bits of the left hand UUID.
+	 * @param lhsLeast the least significant bits of the left hand UUID.
+	 * @param rhsMost the most significant bits of the right hand UUID.
+	 * @param rhsLeast the least significant bits of the right hand UUID.
+	 * @return  a negative integer, zero, or a positive integer as the left hand UUID
+	 *  is less than, equal to, or greater than the right hand UUID.
+	 */
+	public static int compare(long lhsMost, long lhsLeast, long rhsMost, long rhsLeast) {
+		if (lhsMost != rhsMost) {
+			return (lhsMost ^ Long.MIN_VALUE) < (rhsMost ^ Long.MIN_VALUE) ? -1 : 1;
+		}
+		if (lhsLeast != rhsLeast) {
+			return (lhsLeast ^ Long.MIN_VALUE) < (rhsLeast ^ Long.MIN_VALUE) ? -1 : 1;
+		}
+		return 0;
 	}
 	
 	/**
@@ -274,7 +351,7 @@ public class UUID implements Constants, Serializable, Comparable {
 			throw new UnsupportedOperationException(WRONG_VAR_VER_MSG);
 		}
 		if (clockSq == null) {
-			byte[] b = {((byte) (rawBytes[8] & 0x3F)), rawBytes[9]};
+			byte[] b = {((byte) (bytes()[8] & 0x3F)), bytes()[9]};
 			clockSq = new Short(Bytes.toShort(b));
 		}
 		return clockSq.intValue();
@@ -294,7 +371,7 @@ public class UUID implements Constants, Serializable, Comparable {
 	 */
 	public int version() {
 		if (version == -1) {
-			version = ((rawBytes[6] >>> 4) & 0x0F);
+			version = ((bytes()[6] >>> 4) & 0x0F);
 		}
 		return version;
 	}
@@ -310,11 +387,11 @@ public class UUID implements Constants, Serializable, Comparable {
 	 */
 	public int variant() {
 		if (variant == -1) {
-			if ((rawBytes[8] & 0x80) == 0x0) {
+			if ((bytes()[8] & 0x80) == 0x0) {
 				variant = VARIANT_NCS_COMPAT;
-			} else if ((rawBytes[8] & 0x40) == 0x0) {
+			} else if ((bytes()[8] & 0x40) == 0x0) {
 				variant = VARIANT_IETF_DRAFT;
-			} else if ((rawBytes[8] & 0x20) == 0x0) {
+			} else if ((bytes()[8] & 0x20) == 0x0) {
 				variant = VARIANT_MS;
 			} else {
 				variant = VARIANT_FUTURE;
@@ -337,7 +414,7 @@ public class UUID implements Constants, Serializable, Comparable {
 		}
 		if (node == null) {
 			byte[] b = new byte[8];
-			System.arraycopy(rawBytes, 10, b, 2, 6);
+			System.arraycopy(bytes(), 10, b, 2, 6);
 			node = new Long((Bytes.toLong(b) & 0xFFFFFFFFFFFFL));
 		}
 		return node.longValue();
@@ -357,9 +434,9 @@ public class UUID implements Constants, Serializable, Comparable {
 		}
 		if (timestamp == -1) {
 			byte[] longVal = new byte[8];
-			System.arraycopy(rawBytes, TIME_HI_START_POS, longVal, TIME_HI_TS_POS, TIME_HI_BYTE_LEN);
-			System.arraycopy(rawBytes, TIME_MID_START_POS, longVal, TIME_MID_TS_POS, TIME_MID_BYTE_LEN);
-			System.arraycopy(rawBytes, TIME_LOW_START_POS, longVal, TIME_LOW_TS_POS, TIME_LOW_BYTE_LEN);
+			System.arraycopy(bytes(), TIME_HI_START_POS, longVal, TIME_HI_TS_POS, TIME_HI_BYTE_LEN);
+			System.arraycopy(bytes(), TIME_MID_START_POS, longVal, TIME_MID_TS_POS, TIME_MID_BYTE_LEN);
+			System.arraycopy(bytes(), TIME_LOW_START_POS, longVal, TIME_LOW_TS_POS, TIME_LOW_BYTE_LEN);
 			longVal[TIME_HI_TS_POS] &= 0x0F;
 			timestamp = Bytes.toLong(longVal);
 		}
@@ -371,21 +448,42 @@ public class UUID implements Constants, Serializable, Comparable {
 	 *
 	 * @return the least significant bits stored in the uuid's internal structure.
 	 */
-	long getLeastSignificantBits()  {
-		byte[] lsb = new byte[8];
-		System.arraycopy(rawBytes, 8, lsb, 0, 8);
-		return Bytes.toLong(lsb);
+	public long getLeastSignificantBits()  {
+		return bitsAt(8);
 	}
 	
 	/**
-	 * <p>Returns the least significant bits stored in the uuid's internal structure.</p>
+	 * <p>Returns the most significant bits stored in the uuid's internal structure.</p>
 	 *
-	 * @return the least significant bits stored in the uuid's internal structure.
+	 * @return the most significant bits stored in the uuid's internal structure.
+	 */
+	public long getMostSignificantBits()  {
+		return bitsAt(0);
+	}
+	
+	/**
+	 * <p>Reads 8 bytes of the internal structure, starting at offset, as a big endian long.</p>
+	 *
+	 * @param offset the first byte to read, either 0 or 8.
+	 * @return the 64 bits starting at offset.
+	 */
+	private long bitsAt(int offset) {
+		byte[] raw = bytes();
+		long bits = 0;
+		for (int i = offset; i < offset + 8; i++) {
+			bits = (bits << 8) | (raw[i] & 0xFF);
+		}
+		return bits;
+	}
+	
+	/**
+	 * <p>Returns the internal byte array of this UUID, which must not be modified. Subclasses
+	 * that decode their value lazily override this method.</p>
+	 *
+	 * @return the internal byte array of this UUID.
 	 */
-	long getMostSignificantBits()  {
-		byte[] msb = new byte[8];
-		System.arraycopy(rawBytes, 0, msb, 0, 8);
-		return Bytes.toLong(msb);
+	byte[] bytes() {
+		return rawBytes;
 	}
 	
 	/**
@@ -395,7 +493,7 @@ public class UUID implements Constants, Serializable, Comparable {
 	 */
 	public byte[] getRawBytes() {
 		byte[] ret = new byte[UUID_BYTE_LENGTH];
-		System.arraycopy(rawBytes, 0, ret, 0, UUID_BYTE_LENGTH);
+		System.arraycopy(bytes(), 0, ret, 0, UUID_BYTE_LENGTH);
 		return ret;
 	}
 	
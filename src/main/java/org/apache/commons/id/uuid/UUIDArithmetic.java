@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+/**
+ * <p>Static methods treating UUIDs as unsigned 128-bit integers, in the
+ * order of {@link UUID#compare(long, long, long, long)}. Addition and
+ * subtraction wrap around modulo 2^128. The results are plain 128-bit
+ * values; their version and variant fields are not set, so they are not in
+ * general valid RFC 4122 UUIDs, which suits their use as range boundaries
+ * and keys.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDArithmetic {
+
+    /** The smallest value, the nil UUID. */
+    public static final UUID MIN_VALUE = new UUID(0L, 0L);
+
+    /** The largest value, all 128 bits set. */
+    public static final UUID MAX_VALUE = new UUID(-1L, -1L);
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private UUIDArithmetic() {
+    }
+
+    /**
+     * <p>Returns a value plus one.</p>
+     *
+     * @param uuid the value.
+     * @return uuid + 1, wrapping around to zero after {@link #MAX_VALUE}.
+     */
+    public static UUID increment(UUID uuid) {
+        return add(uuid, 1L);
+    }
+
+    /**
+     * <p>Returns a value minus one.</p>
+     *
+     * @param uuid the value.
+     * @return uuid - 1, wrapping around to {@link #MAX_VALUE} before zero.
+     */
+    public static UUID decrement(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        return new UUID(lsb == 0 ? msb - 1 : msb, lsb - 1);
+    }
+
+    /**
+     * <p>Returns the sum of a value and an unsigned 64-bit amount.</p>
+     *
+     * @param uuid the value.
+     * @param amount the amount, treated as unsigned.
+     * @return uuid + amount modulo 2^128.
+     */
+    public static UUID add(UUID uuid, long amount) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long sum = lsb + amount;
+        return new UUID(msb + carry(lsb, sum), sum);
+    }
+
+    /**
+     * <p>Returns the sum of two values.</p>
+     *
+     * @param augend the first value.
+     * @param addend the second value.
+     * @return augend + addend modulo 2^128.
+     */
+    public static UUID add(UUID augend, UUID addend) {
+        long lsb = augend.getLeastSignificantBits();
+        long sum = lsb + addend.getLeastSignificantBits();
+        return new UUID(augend.getMostSignificantBits() + addend.getMostSignificantBits()
+                + carry(lsb, sum), sum);
+    }
+
+    /**
+     * <p>Returns the difference of two values.</p>
+     *
+     * @param minuend the value subtracted from.
+     * @param subtrahend the value subtracted.
+     * @return minuend - subtrahend modulo 2^128.
+     */
+    public static UUID subtract(UUID minuend, UUID subtrahend) {
+        long lsb = minuend.getLeastSignificantBits();
+        long difference = lsb - subtrahend.getLeastSignificantBits();
+        return new UUID(minuend.getMostSignificantBits() - subtrahend.getMostSignificantBits()
+                - borrow(lsb, difference), difference);
+    }
+
+    /**
+     * <p>Returns the distance from one value up to another, that is
+     * <code>to - from</code> for <code>from &lt;= to</code>.</p>
+     *
+     * @param from the lower value.
+     * @param to the upper value.
+     * @return the number of steps from from to to.
+     * @throws IllegalArgumentException if from is greater than to.
+     */
+    public static UUID distance(UUID from, UUID to) {
+        if (UUID.compare(from.getMostSignificantBits(), from.getLeastSignificantBits(),
+                to.getMostSignificantBits(), to.getLeastSignificantBits()) > 0) {
+            throw new IllegalArgumentException(from + " is greater than " + to);
+        }
+        return subtract(to, from);
+    }
+
+    /**
+     * <p>Returns the value halfway between two values, rounded down. The
+     * sum is never formed, so nothing overflows.</p>
+     *
+     * @param a one value.
+     * @param b the other value.
+     * @return floor((a + b) / 2).
+     */
+    public static UUID midpoint(UUID a, UUID b) {
+        long aMost = a.getMostSignificantBits();
+        long aLeast = a.getLeastSignificantBits();
+        long bMost = b.getMostSignificantBits();
+        long bLeast = b.getLeastSignificantBits();
+        // (a >> 1) + (b >> 1) + (a & b & 1)
+        long halfLeast = ((aLeast >>> 1) | (aMost << 63)) + ((bLeast >>> 1) | (bMost << 63));
+        long halfMost = (aMost >>> 1) + (bMost >>> 1);
+        long oddLeast = aLeast & bLeast & 1L;
+        long resultLeast = halfLeast + oddLeast;
+        long lowCarry = carry((aLeast >>> 1) | (aMost << 63), halfLeast) + carry(halfLeast, resultLeast);
+        return new UUID(halfMost + lowCarry, resultLeast);
+    }
+
+    /**
+     * <p>Returns the quotient of a value and a positive divisor.</p>
+     *
+     * @param dividend the value.
+     * @param divisor the divisor.
+     * @return floor(dividend / divisor).
+     * @throws IllegalArgumentException if divisor is not positive.
+     */
+    public static UUID divide(UUID dividend, int divisor) {
+        long[] quotient = new long[2];
+        divide(dividend.getMostSignificantBits(), dividend.getLeastSignificantBits(), divisor, quotient);
+        return new UUID(quotient[0], quotient[1]);
+    }
+
+    /**
+     * <p>Returns the remainder of a value divided by a positive divisor.</p>
+     *
+     * @param dividend the value.
+     * @param divisor the divisor.
+     * @return dividend mod divisor.
+     * @throws IllegalArgumentException if divisor is not positive.
+     */
+    public static int remainder(UUID dividend, int divisor) {
+        return divide(dividend.getMostSignificantBits(), dividend.getLeastSignificantBits(), divisor, null);
+    }
+
+    /**
+     * <p>Divides a 128-bit value by a positive int by long division over
+     * 32-bit digits. Each partial dividend is below 2^63 because the running
+     * remainder is below the divisor.</p>
+     *
+     * @param most the most significant bits of the dividend.
+     * @param least the least significant bits of the dividend.
+     * @param divisor the divisor.
+     * @param quotient receives the quotient's most and least significant
+     *  bits, unless null.
+     * @return the remainder.
+     * @throws IllegalArgumentException if divisor is not positive.
+     */
+    static int divide(long most, long least, int divisor, long[] quotient) {
+        if (divisor <= 0) {
+            throw new IllegalArgumentException("The divisor must be positive.");
+        }
+        long remainder = 0;
+        long q0 = 0;
+        long q1 = 0;
+        for (int digit = 0; digit < 4; digit++) {
+            long word = digit < 2 ? most : least;
+            long part = (remainder << 32) | ((word >>> (digit % 2 == 0 ? 32 : 0)) & 0xFFFFFFFFL);
+            long q = part / divisor;
+            remainder = part % divisor;
+            if (digit < 2) {
+                q0 = (q0 << 32) | q;
+            } else {
+                q1 = (q1 << 32) | q;
+            }
+        }
+        if (quotient != null) {
+            quotient[0] = q0;
+            quotient[1] = q1;
+        }
+        return (int) remainder;
+    }
+
+    /**
+     * <p>Returns the carry out of an unsigned 64-bit addition.</p>
+     *
+     * @param addend an operand of the addition.
+     * @param sum the wrapped sum.
+     * @return 1 if the addition overflowed, else 0.
+     */
+    static long carry(long addend, long sum) {
+        return (sum ^ Long.MIN_VALUE) < (addend ^ Long.MIN_VALUE) ? 1L : 0L;
+    }
+
+    /**
+     * <p>Returns the borrow out of an unsigned 64-bit subtraction.</p>
+     *
+     * @param minuend the value subtracted from.
+     * @param difference the wrapped difference.
+     * @return 1 if the subtraction underflowed, else 0.
+     */
+    static long borrow(long minuend, long difference) {
+        return (difference ^ Long.MIN_VALUE) > (minuend ^ Long.MIN_VALUE) ? 1L : 0L;
+    }
+}
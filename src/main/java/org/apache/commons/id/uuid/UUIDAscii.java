@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.id.Hex;
+
+/**
+ * <p>Static methods formatting and parsing UUIDs as ASCII bytes, in a
+ * <code>byte[]</code> or a <code>ByteBuffer</code>, for protocol code that
+ * never needs the text as a <code>String</code>. Both the 36 character
+ * form with dashes and the 32 character form of hex digits alone are
+ * supported. Formatting writes lower case digits; parsing accepts either
+ * case.</p>
+ *
+ * <p>Nothing is allocated except the exception thrown for malformed input,
+ * and the {@link UUID} returned by the <code>parse</code> methods. To avoid
+ * even that, read the two halves with
+ * {@link #mostSignificantBits(byte[], int, int)} and
+ * {@link #leastSignificantBits(byte[], int, int)}, each of which decodes
+ * only its own 16 digits.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDAscii implements Constants {
+
+    /** The ASCII code of the dash. */
+    private static final byte DASH = '-';
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private UUIDAscii() {
+    }
+
+    // formatting
+    //-----------------------------------------------------------------------
+
+    /**
+     * <p>Writes the 36 character form of a UUID.</p>
+     *
+     * @param uuid the UUID.
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     * @return the index after the last character written.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    public static int format(UUID uuid, byte[] out, int offset) {
+        return format(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), out, offset);
+    }
+
+    /**
+     * <p>Writes the 36 character form of a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     * @return the index after the last character written.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    public static int format(long mostSignificant, long leastSignificant, byte[] out, int offset) {
+        if (offset < 0 || offset > out.length - UUID_FORMATTED_LENGTH) {
+            throw new IndexOutOfBoundsException("No room for " + UUID_FORMATTED_LENGTH + " bytes at " + offset);
+        }
+        Hex.encodeHex(mostSignificant >>> 32, out, offset, 8);
+        out[offset + FORMAT_POSITION1] = DASH;
+        Hex.encodeHex(mostSignificant >>> 16, out, offset + FORMAT_POSITION1 + 1, 4);
+        out[offset + FORMAT_POSITION2] = DASH;
+        Hex.encodeHex(mostSignificant, out, offset + FORMAT_POSITION2 + 1, 4);
+        out[offset + FORMAT_POSITION3] = DASH;
+        Hex.encodeHex(leastSignificant >>> 48, out, offset + FORMAT_POSITION3 + 1, 4);
+        out[offset + FORMAT_POSITION4] = DASH;
+        Hex.encodeHex(leastSignificant, out, offset + FORMAT_POSITION4 + 1, 12);
+        return offset + UUID_FORMATTED_LENGTH;
+    }
+
+    /**
+     * <p>Writes the 32 character form of a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     * @return the index after the last character written.
+     * @throws IndexOutOfBoundsException if out is too short.
+     */
+    public static int formatCompact(long mostSignificant, long leastSignificant, byte[] out, int offset) {
+        if (offset < 0 || offset > out.length - UUID_UNFORMATTED_LENGTH) {
+            throw new IndexOutOfBoundsException("No room for " + UUID_UNFORMATTED_LENGTH + " bytes at " + offset);
+        }
+        Hex.encodeHex(mostSignificant, out, offset, 16);
+        Hex.encodeHex(leastSignificant, out, offset + 16, 16);
+        return offset + UUID_UNFORMATTED_LENGTH;
+    }
+
+    /**
+     * <p>Puts the 36 character form of a UUID given by its two halves at the
+     * position of a buffer, and advances the position past it.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @param out the buffer.
+     * @throws BufferOverflowException if fewer than 36 bytes remain.
+     */
+    public static void put(long mostSignificant, long leastSignificant, ByteBuffer out) {
+        int index = reserve(out, UUID_FORMATTED_LENGTH);
+        Hex.encodeHex(mostSignificant >>> 32, out, index, 8);
+        out.put(index + FORMAT_POSITION1, DASH);
+        Hex.encodeHex(mostSignificant >>> 16, out, index + FORMAT_POSITION1 + 1, 4);
+        out.put(index + FORMAT_POSITION2, DASH);
+        Hex.encodeHex(mostSignificant, out, index + FORMAT_POSITION2 + 1, 4);
+        out.put(index + FORMAT_POSITION3, DASH);
+        Hex.encodeHex(leastSignificant >>> 48, out, index + FORMAT_POSITION3 + 1, 4);
+        out.put(index + FORMAT_POSITION4, DASH);
+        Hex.encodeHex(leastSignificant, out, index + FORMAT_POSITION4 + 1, 12);
+    }
+
+    /**
+     * <p>Puts the 32 character form of a UUID given by its two halves at the
+     * position of a buffer, and advances the position past it.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @param out the buffer.
+     * @throws BufferOverflowException if fewer than 32 bytes remain.
+     */
+    public static void putCompact(long mostSignificant, long leastSignificant, ByteBuffer out) {
+        int index = reserve(out, UUID_UNFORMATTED_LENGTH);
+        Hex.encodeHex(mostSignificant, out, index, 16);
+        Hex.encodeHex(leastSignificant, out, index + 16, 16);
+    }
+
+    /**
+     * <p>Advances the position of a buffer over room for a UUID.</p>
+     *
+     * @param out the buffer.
+     * @param length the number of bytes needed.
+     * @return the position before advancing.
+     * @throws BufferOverflowException if fewer bytes remain.
+     */
+    private static int reserve(ByteBuffer out, int length) {
+        if (out.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        int index = out.position();
+        out.position(index + length);
+        return index;
+    }
+
+    // parsing
+    //-----------------------------------------------------------------------
+
+    /**
+     * <p>Parses a UUID from 36 or 32 ASCII characters.</p>
+     *
+     * @param in the array holding the characters.
+     * @param offset the index in in of the first character.
+     * @param length the number of characters, 36 or 32.
+     * @return the UUID.
+     * @throws UUIDFormatException if the characters are not a UUID.
+     */
+    public static UUID parse(byte[] in, int offset, int length) throws UUIDFormatException {
+        return new UUID(mostSignificantBits(in, offset, length), leastSignificantBits(in, offset, length));
+    }
+
+    /**
+     * <p>Parses the most significant 64 bits of a UUID from 36 or 32 ASCII
+     * characters, decoding only the first 16 digits and the dashes among
+     * them.</p>
+     *
+     * @param in the array holding the characters.
+     * @param offset the index in in of the first character.
+     * @param length the number of characters, 36 or 32.
+     * @return the most significant 64 bits.
+     * @throws UUIDFormatException if the characters are not a UUID.
+     */
+    public static long mostSignificantBits(byte[] in, int offset, int length) throws UUIDFormatException {
+        checkRange(in.length, offset, length);
+        if (length == UUID_FORMATTED_LENGTH) {
+            if (in[offset + FORMAT_POSITION1] != DASH || in[offset + FORMAT_POSITION2] != DASH) {
+                throw malformed(in, offset, length);
+            }
+            return half(in, offset, length, 0);
+        }
+        return digits(in, offset, length, offset, 16);
+    }
+
+    /**
+     * <p>Parses the least significant 64 bits of a UUID from 36 or 32 ASCII
+     * characters, decoding only the last 16 digits and the dashes among
+     * them.</p>
+     *
+     * @param in the array holding the characters.
+     * @param offset the index in in of the first character.
+     * @param length the number of characters, 36 or 32.
+     * @return the least significant 64 bits.
+     * @throws UUIDFormatException if the characters are not a UUID.
+     */
+    public static long leastSignificantBits(byte[] in, int offset, int length) throws UUIDFormatException {
+        checkRange(in.length, offset, length);
+        if (length == UUID_FORMATTED_LENGTH) {
+            if (in[offset + FORMAT_POSITION3] != DASH || in[offset + FORMAT_POSITION4] != DASH) {
+                throw malformed(in, offset, length);
+            }
+            return half(in, offset, length, 16);
+        }
+        return digits(in, offset, length, offset + 16, 16);
+    }
+
+    /**
+     * <p>Parses a UUID from 36 or 32 ASCII characters at an absolute index of
+     * a buffer. The position of the buffer is not changed.</p>
+     *
+     * @param in the buffer holding the characters.
+     * @param index the index in in of the first character.
+     * @param length the number of characters, 36 or 32.
+     * @return the UUID.
+     * @throws UUIDFormatException if the characters are not a UUID.
+     */
+    public static UUID parse(ByteBuffer in, int index, int length) throws UUIDFormatException {
+        return new UUID(mostSignificantBits(in, index, length), leastSignificantBits(in, index, length));
+    }
+
+    /**
+     * <p>Parses the most significant 64 bits of a UUID from 36 or 32 ASCII
+     * characters at an absolute index of a buffer.</p>
+     *
+     * @param in the buffer holding the characters.
+     * @param index the index in in of the first character.
+     * @param length the number of characters, 36 or 32.
+     * @return the most significant 64 bits.
+     * @throws UUIDFormatException if the characters are not a UUID.
+     */
+    public static long mostSignificantBits(ByteBuffer in, int index, int length) throws UUIDFormatException {
+        checkRange(in.limit(), index, length);
+        if (length == UUID_FORMATTED_LENGTH) {
+            if (in.get(index + FORMAT_POSITION1) != DASH || in.get(index + FORMAT_POSITION2) != DASH) {
+                throw malformed(in, index, length);
+            }
+            return half(in, index, length, 0);
+        }
+        return digits(in, index, length, index, 16);
+    }
+
+    /**
+     * <p>Parses the least significant 64 bits of a UUID from 36 or 32 ASCII
+     * characters at an absolute index of a buffer.</p>
+     *
+     * @param in the buffer holding the characters.
+     * @param index the index in in of the first character.
+     * @param length the number of characters, 36 or 32.
+     * @return the least significant 64 bits.
+     * @throws UUIDFormatException if the characters are not a UUID.
+     */
+    public static long leastSignificantBits(ByteBuffer in, int index, int length) throws UUIDFormatException {
+        checkRange(in.limit(), index, length);
+        if (length == UUID_FORMATTED_LENGTH) {
+            if (in.get(index + FORMAT_POSITION3) != DASH || in.get(index + FORMAT_POSITION4) != DASH) {
+                throw malformed(in, index, length);
+            }
+            return half(in, index, length, 16);
+        }
+        return digits(in, index, length, index + 16, 16);
+    }
+
+    /**
+     * <p>Decodes 16 digits of the 36 character form.</p>
+     *
+     * @param in the array holding the characters.
+     * @param offset the index in in of the first character.
+     * @param length the number of characters, for error messages.
+     * @param first the number of the first digit, 0 or 16.
+     * @return the value of the digits.
+     * @throws UUIDFormatException if a character is not a hex digit.
+     */
+    private static long half(byte[] in, int offset, int length, int first) throws UUIDFormatException {
+        long value = 0;
+        int bad = 0;
+        for (int i = first; i < first + 16; i++) {
+            int digit = Hex.decodeDigit(in[offset + UUIDStrings.DIGIT_POSITIONS[i]] & 0xFF);
+            bad |= digit;
+            value = (value << 4) | (digit & 0x0F);
+        }
+        if (bad < 0) {
+            throw malformed(in, offset, length);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Decodes 16 consecutive digits.</p>
+     *
+     * @param in the array holding the characters.
+     * @param offset the index in in of the first character, for error messages.
+     * @param length the number of characters, for error messages.
+     * @param start the index in in of the first digit.
+     * @param count the number of digits.
+     * @return the value of the digits.
+     * @throws UUIDFormatException if a character is not a hex digit.
+     */
+    private static long digits(byte[] in, int offset, int length, int start, int count)
+            throws UUIDFormatException {
+        long value = 0;
+        int bad = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = Hex.decodeDigit(in[i] & 0xFF);
+            bad |= digit;
+            value = (value << 4) | (digit & 0x0F);
+        }
+        if (bad < 0) {
+            throw malformed(in, offset, length);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Decodes 16 digits of the 36 character form in a buffer.</p>
+     *
+     * @param in the buffer holding the characters.
+     * @param index the index in in of the first character.
+     * @param length the number of characters, for error messages.
+     * @param first the number of the first digit, 0 or 16.
+     * @return the value of the digits.
+     * @throws UUIDFormatException if a character is not a hex digit.
+     */
+    private static long half(ByteBuffer in, int index, int length, int first) throws UUIDFormatException {
+        long value = 0;
+        int bad = 0;
+        for (int i = first; i < first + 16; i++) {
+            int digit = Hex.decodeDigit(in.get(index + UUIDStrings.DIGIT_POSITIONS[i]) & 0xFF);
+            bad |= digit;
+            value = (value << 4) | (digit & 0x0F);
+        }
+        if (bad < 0) {
+            throw malformed(in, index, length);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Decodes consecutive digits in a buffer.</p>
+     *
+     * @param in the buffer holding the characters.
+     * @param index the index in in of the first character, for error messages.
+     * @param length the number of characters, for error messages.
+     * @param start the index in in of the first digit.
+     * @param count the number of digits.
+     * @return the value of the digits.
+     * @throws UUIDFormatException if a character is not a hex digit.
+     */
+    private static long digits(ByteBuffer in, int index, int length, int start, int count)
+            throws UUIDFormatException {
+        long value = 0;
+        int bad = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = Hex.decodeDigit(in.get(i) & 0xFF);
+            bad |= digit;
+            value = (value << 4) | (digit & 0x0F);
+        }
+        if (bad < 0) {
+            throw malformed(in, index, length);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Checks that a length is a UUID length and the characters are within
+     * bounds.</p>
+     *
+     * @param limit the end of the readable bytes.
+     * @param offset the index of the first character.
+     * @param length the number of characters.
+     * @throws UUIDFormatException if the length is neither 36 nor 32.
+     * @throws IndexOutOfBoundsException if the characters are out of bounds.
+     */
+    private static void checkRange(int limit, int offset, int length) throws UUIDFormatException {
+        if (length != UUID_FORMATTED_LENGTH && length != UUID_UNFORMATTED_LENGTH) {
+            throw new UUIDFormatException("A UUID is " + UUID_FORMATTED_LENGTH + " or "
+                    + UUID_UNFORMATTED_LENGTH + " characters long, not " + length);
+        }
+        if (offset < 0 || offset > limit - length) {
+            throw new IndexOutOfBoundsException("No " + length + " bytes at " + offset);
+        }
+    }
+
+    /**
+     * <p>Builds the exception for malformed characters.</p>
+     *
+     * @param in the array holding the characters.
+     * @param offset the index in in of the first character.
+     * @param length the number of characters.
+     * @return the exception to throw.
+     */
+    private static UUIDFormatException malformed(byte[] in, int offset, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (char) (in[offset + i] & 0xFF);
+        }
+        return new UUIDFormatException(new String(text));
+    }
+
+    /**
+     * <p>Builds the exception for malformed characters in a buffer.</p>
+     *
+     * @param in the buffer holding the characters.
+     * @param index the index in in of the first character.
+     * @param length the number of characters.
+     * @return the exception to throw.
+     */
+    private static UUIDFormatException malformed(ByteBuffer in, int index, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (char) (in.get(index + i) & 0xFF);
+        }
+        return new UUIDFormatException(new String(text));
+    }
+}
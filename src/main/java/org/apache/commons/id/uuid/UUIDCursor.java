@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>A reusable, mutable view of a 16-byte UUID slot inside a
+ * <code>ByteBuffer</code>, for scanning binary records without creating a
+ * <code>UUID</code> per row. The slot holds the UUID bytes in network (big
+ * endian) order whatever the buffer's byte order is. Heap, direct and
+ * memory-mapped buffers are all supported.</p>
+ *
+ * <p>All accessors read the buffer directly using absolute positions, so the
+ * buffer's position and limit are left untouched and nothing is copied.
+ * {@link #toUUID()} materializes an immutable <code>UUID</code> only when one
+ * is needed.</p>
+ *
+ * <p>Because a cursor changes as it is moved, it must not be used as a key
+ * in hash based collections. <code>equals</code> and <code>compareTo</code>
+ * only accept another cursor, so that they stay symmetric; use
+ * {@link #matches(UUID)} and {@link #compareWith(UUID)} against a
+ * <code>UUID</code>. This class is not thread safe.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDCursor implements Constants, Comparable {
+
+    /** The buffer holding the slot. */
+    private ByteBuffer buffer;
+
+    /** The absolute index of the slot in the buffer. */
+    private int offset;
+
+    /** Whether longs read from the buffer must be byte swapped. */
+    private boolean swap;
+
+    /**
+     * <p>Constructs a cursor that points nowhere yet.</p>
+     */
+    public UUIDCursor() {
+        super();
+    }
+
+    /**
+     * <p>Constructs a cursor pointing at a slot.</p>
+     *
+     * @param buffer the buffer holding the slot.
+     * @param offset the absolute index of the slot's first byte.
+     */
+    public UUIDCursor(ByteBuffer buffer, int offset) {
+        super();
+        wrap(buffer, offset);
+    }
+
+    /**
+     * <p>Points this cursor at a slot.</p>
+     *
+     * @param buffer the buffer holding the slot.
+     * @param offset the absolute index of the slot's first byte.
+     * @return this cursor.
+     * @throws IndexOutOfBoundsException if the slot does not fit within the buffer's limit.
+     */
+    public UUIDCursor wrap(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.swap = buffer.order() != ByteOrder.BIG_ENDIAN;
+        return moveTo(offset);
+    }
+
+    /**
+     * <p>Points this cursor at another slot in the same buffer.</p>
+     *
+     * @param offset the absolute index of the slot's first byte.
+     * @return this cursor.
+     * @throws IndexOutOfBoundsException if the slot does not fit within the buffer's limit.
+     */
+    public UUIDCursor moveTo(int offset) {
+        if (offset < 0 || offset > buffer.limit() - UUID_BYTE_LENGTH) {
+            throw new IndexOutOfBoundsException("No 16 byte slot at " + offset);
+        }
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * <p>Returns the buffer this cursor points into.</p>
+     *
+     * @return the buffer, or null if the cursor was never positioned.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * <p>Returns the absolute index of the slot this cursor points at.</p>
+     *
+     * @return the slot offset.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * <p>Returns the most significant bits of the slot.</p>
+     *
+     * @return the most significant 64 bits.
+     */
+    public long getMostSignificantBits() {
+        long bits = buffer.getLong(offset);
+        return swap ? Long.reverseBytes(bits) : bits;
+    }
+
+    /**
+     * <p>Returns the least significant bits of the slot.</p>
+     *
+     * @return the least significant 64 bits.
+     */
+    public long getLeastSignificantBits() {
+        long bits = buffer.getLong(offset + 8);
+        return swap ? Long.reverseBytes(bits) : bits;
+    }
+
+    /**
+     * <p>Returns whether the slot holds the given UUID.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if the slot holds those bits.
+     */
+    public boolean matches(long mostSignificant, long leastSignificant) {
+        return getMostSignificantBits() == mostSignificant && getLeastSignificantBits() == leastSignificant;
+    }
+
+    /**
+     * <p>Returns whether the slot holds the given UUID.</p>
+     *
+     * @param uuid the UUID.
+     * @return true if the slot holds the same 128 bits.
+     */
+    public boolean matches(UUID uuid) {
+        return matches(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Compares the slot with another cursor's slot.</p>
+     *
+     * @param obj the object to compare with.
+     * @return true if obj is a <code>UUIDCursor</code> holding the same 128 bits.
+     * @see java.lang.Object#equals(Object)
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof UUIDCursor) {
+            UUIDCursor other = (UUIDCursor) obj;
+            return matches(other.getMostSignificantBits(), other.getLeastSignificantBits());
+        }
+        return false;
+    }
+
+    /**
+     * <p>Returns the hash code of the slot, equal to the
+     * <code>UUID.hashCode()</code> of the same value.</p>
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        return UUID.hashCode(getMostSignificantBits(), getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Compares the slot with another cursor's slot in the unsigned order
+     * of {@link UUID#compare(long, long, long, long)}.</p>
+     *
+     * @see Comparable#compareTo(Object)
+     */
+    public int compareTo(Object compareTo) throws ClassCastException {
+        if (!(compareTo instanceof UUIDCursor)) {
+            throw new ClassCastException();
+        }
+        UUIDCursor other = (UUIDCursor) compareTo;
+        return compareTo(other.getMostSignificantBits(), other.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Compares the slot with a UUID in the unsigned order of
+     * {@link UUID#compare(long, long, long, long)}.</p>
+     *
+     * @param uuid the UUID.
+     * @return a negative integer, zero, or a positive integer as the slot is
+     *  less than, equal to, or greater than the UUID.
+     */
+    public int compareWith(UUID uuid) {
+        return compareTo(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Compares the slot with a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return a negative integer, zero, or a positive integer as the slot is
+     *  less than, equal to, or greater than the given UUID.
+     */
+    public int compareTo(long mostSignificant, long leastSignificant) {
+        return UUID.compare(getMostSignificantBits(), getLeastSignificantBits(), mostSignificant, leastSignificant);
+    }
+
+    /**
+     * <p>Returns the version of the UUID in the slot.</p>
+     *
+     * @return the version of the UUID.
+     * @see UUID#version()
+     */
+    public int version() {
+        return (int) (getMostSignificantBits() >>> 12) & 0x0F;
+    }
+
+    /**
+     * <p>Returns the variant field of the UUID in the slot.</p>
+     *
+     * @return the variant field of the UUID.
+     * @see UUID#variant()
+     */
+    public int variant() {
+        int b = buffer.get(offset + CLOCK_SEQ_HI_AND_RESERVED_BYTE_8);
+        if ((b & 0x80) == 0x0) {
+            return VARIANT_NCS_COMPAT;
+        } else if ((b & 0x40) == 0x0) {
+            return VARIANT_IETF_DRAFT;
+        } else if ((b & 0x20) == 0x0) {
+            return VARIANT_MS;
+        }
+        return VARIANT_FUTURE;
+    }
+
+    /**
+     * <p>Returns the timestamp of the time-based UUID in the slot as
+     * 100-nano second intervals since the Gregorian change offset.</p>
+     *
+     * @return the timestamp value of the UUID.
+     * @throws UnsupportedOperationException thrown if this is not a IETF variant or not a time-based UUID.
+     * @see UUID#timestamp()
+     */
+    public long timestamp() throws UnsupportedOperationException {
+        checkTimeBased();
+        long msb = getMostSignificantBits();
+        return ((msb & 0x0FFFL) << 48) | (((msb >>> 16) & 0xFFFFL) << 32) | (msb >>> 32);
+    }
+
+    /**
+     * <p>Returns the clock sequence of the time-based UUID in the slot.</p>
+     *
+     * @return the clock sequence value in the UUID.
+     * @throws UnsupportedOperationException thrown if this is not a IETF variant or not a time-based UUID.
+     * @see UUID#clockSequence()
+     */
+    public int clockSequence() throws UnsupportedOperationException {
+        checkTimeBased();
+        return (int) (getLeastSignificantBits() >>> 48) & 0x3FFF;
+    }
+
+    /**
+     * <p>Returns the node identifier of the time-based UUID in the slot.</p>
+     *
+     * @return the node identifier found in this UUID.
+     * @throws UnsupportedOperationException thrown if this is not a IETF variant or not a time-based UUID.
+     * @see UUID#node()
+     */
+    public long node() throws UnsupportedOperationException {
+        checkTimeBased();
+        return getLeastSignificantBits() & 0xFFFFFFFFFFFFL;
+    }
+
+    /**
+     * <p>Writes the 36 character string form of the slot into an array.</p>
+     *
+     * @param out the array receiving the characters.
+     * @param outOffset the index in out of the first character.
+     */
+    public void format(char[] out, int outOffset) {
+        UUIDStrings.format(getMostSignificantBits(), getLeastSignificantBits(), out, outOffset);
+    }
+
+    /**
+     * <p>Returns the string form of the UUID in the slot.</p>
+     *
+     * @return a string representation of the UUID formatted according to the specification.
+     */
+    public String toString() {
+        return UUIDStrings.format(getMostSignificantBits(), getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Copies the slot into a new immutable <code>UUID</code>.</p>
+     *
+     * @return a UUID with the value of the slot.
+     */
+    public UUID toUUID() {
+        return new UUID(getMostSignificantBits(), getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Checks that the slot holds a time-based IETF variant UUID.</p>
+     *
+     * @throws UnsupportedOperationException if it does not.
+     */
+    private void checkTimeBased() {
+        if (variant() != VARIANT_IETF_DRAFT || version() != VERSION_ONE) {
+            throw new UnsupportedOperationException(WRONG_VAR_VER_MSG);
+        }
+    }
+}
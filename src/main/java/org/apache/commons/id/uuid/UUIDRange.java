@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import java.io.Serializable;
+
+/**
+ * <p>An immutable, non-empty range of UUIDs from a lower to an upper bound,
+ * both inclusive, in the unsigned order of
+ * {@link UUID#compare(long, long, long, long)}. Inclusive bounds let a range
+ * cover the whole 128-bit space, {@link #ALL}.</p>
+ *
+ * <p>{@link #split(int)} cuts a range into evenly sized, contiguous parts,
+ * for example to fan a full scan of a UUID keyed table out to several
+ * workers.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDRange implements Serializable {
+
+    /** The range of every 128-bit value. */
+    public static final UUIDRange ALL = new UUIDRange(UUIDArithmetic.MIN_VALUE, UUIDArithmetic.MAX_VALUE);
+
+    private static final long serialVersionUID = -2851349870224615043L;
+
+    /** The lower bound, inclusive. */
+    private final UUID lower;
+
+    /** The upper bound, inclusive. */
+    private final UUID upper;
+
+    /**
+     * <p>Constructs a range.</p>
+     *
+     * @param lower the lower bound, inclusive.
+     * @param upper the upper bound, inclusive.
+     * @throws IllegalArgumentException if lower is greater than upper.
+     * @throws NullPointerException if a bound is null.
+     */
+    public UUIDRange(UUID lower, UUID upper) {
+        super();
+        if (UUID.compare(lower.getMostSignificantBits(), lower.getLeastSignificantBits(),
+                upper.getMostSignificantBits(), upper.getLeastSignificantBits()) > 0) {
+            throw new IllegalArgumentException("The lower bound " + lower
+                    + " is greater than the upper bound " + upper);
+        }
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * <p>Returns the lower bound.</p>
+     *
+     * @return the smallest UUID in the range.
+     */
+    public UUID getLower() {
+        return lower;
+    }
+
+    /**
+     * <p>Returns the upper bound.</p>
+     *
+     * @return the largest UUID in the range.
+     */
+    public UUID getUpper() {
+        return upper;
+    }
+
+    /**
+     * <p>Returns the number of UUIDs in the range minus one. The count itself
+     * does not fit in 128 bits for {@link #ALL}.</p>
+     *
+     * @return upper - lower.
+     */
+    public UUID getSpan() {
+        return UUIDArithmetic.subtract(upper, lower);
+    }
+
+    /**
+     * <p>Returns whether the range contains a UUID.</p>
+     *
+     * @param uuid the UUID.
+     * @return true if lower &lt;= uuid &lt;= upper.
+     */
+    public boolean contains(UUID uuid) {
+        return contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Returns whether the range contains a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if lower &lt;= the UUID &lt;= upper.
+     */
+    public boolean contains(long mostSignificant, long leastSignificant) {
+        return UUID.compare(lower.getMostSignificantBits(), lower.getLeastSignificantBits(),
+                mostSignificant, leastSignificant) <= 0
+            && UUID.compare(mostSignificant, leastSignificant,
+                upper.getMostSignificantBits(), upper.getLeastSignificantBits()) <= 0;
+    }
+
+    /**
+     * <p>Splits the range into contiguous parts whose sizes differ by at most
+     * one, the larger parts first. The lower bounds of the parts are the
+     * partition boundaries; the first is this range's lower bound and the
+     * last part ends at this range's upper bound.</p>
+     *
+     * @param parts the number of parts.
+     * @return the parts, in ascending order.
+     * @throws IllegalArgumentException if parts is not positive or exceeds
+     *  the number of UUIDs in the range.
+     */
+    public UUIDRange[] split(int parts) {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("The number of parts must be positive.");
+        }
+        if (parts == 1) {
+            return new UUIDRange[] {this};
+        }
+        long spanMost = upper.getMostSignificantBits() - lower.getMostSignificantBits()
+                - UUIDArithmetic.borrow(upper.getLeastSignificantBits(),
+                        upper.getLeastSignificantBits() - lower.getLeastSignificantBits());
+        long spanLeast = upper.getLeastSignificantBits() - lower.getLeastSignificantBits();
+        if (spanMost == 0 && spanLeast >= 0 && spanLeast < parts - 1) {
+            throw new IllegalArgumentException("Cannot split " + (spanLeast + 1) + " UUIDs into "
+                    + parts + " parts.");
+        }
+        // count = span + 1 = quotient * parts + extra, without forming span + 1
+        long[] quotient = new long[2];
+        int extra = UUIDArithmetic.divide(spanMost, spanLeast, parts, quotient) + 1;
+        if (extra == parts) {
+            long least = quotient[1] + 1;
+            quotient[0] += UUIDArithmetic.carry(quotient[1], least);
+            quotient[1] = least;
+            extra = 0;
+        }
+        UUIDRange[] result = new UUIDRange[parts];
+        long startMost = lower.getMostSignificantBits();
+        long startLeast = lower.getLeastSignificantBits();
+        for (int i = 0; i < parts; i++) {
+            // the part's last UUID is start + size - 1, where size is quotient or quotient + 1
+            long endLeast = startLeast + quotient[1];
+            long endMost = startMost + quotient[0] + UUIDArithmetic.carry(startLeast, endLeast);
+            if (i >= extra) {
+                endMost -= endLeast == 0 ? 1 : 0;
+                endLeast--;
+            }
+            UUID start = new UUID(startMost, startLeast);
+            UUID end = i == parts - 1 ? upper : new UUID(endMost, endLeast);
+            result[i] = new UUIDRange(start, end);
+            startLeast = endLeast + 1;
+            startMost = endLeast == -1L ? endMost + 1 : endMost;
+        }
+        return result;
+    }
+
+    /**
+     * <p>Returns the partition boundaries of {@link #split(int)}: the lower
+     * bounds of the parts.</p>
+     *
+     * @param parts the number of parts.
+     * @return the lower bound of each part, in ascending order.
+     * @throws IllegalArgumentException if parts is not positive or exceeds
+     *  the number of UUIDs in the range.
+     */
+    public UUID[] boundaries(int parts) {
+        UUIDRange[] ranges = split(parts);
+        UUID[] result = new UUID[parts];
+        for (int i = 0; i < parts; i++) {
+            result[i] = ranges[i].lower;
+        }
+        return result;
+    }
+
+    /**
+     * <p>Compares two ranges for equality.</p>
+     *
+     * @see java.lang.Object#equals(Object)
+     */
+    public boolean equals(Object obj) {
+        if (!(obj instanceof UUIDRange)) {
+            return false;
+        }
+        UUIDRange other = (UUIDRange) obj;
+        return lower.equals(other.lower) && upper.equals(other.upper);
+    }
+
+    /**
+     * <p>Returns a hash code value for the range.</p>
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode() {
+        return lower.hashCode() * 37 + upper.hashCode();
+    }
+
+    /**
+     * <p>Returns the range as <code>[lower, upper]</code>.</p>
+     *
+     * @return a string representation of the range.
+     */
+    public String toString() {
+        return "[" + lower + ", " + upper + "]";
+    }
+}
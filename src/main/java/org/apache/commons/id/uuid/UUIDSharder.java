@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import org.apache.commons.id.HashUtils;
+
+/**
+ * <p>Routes UUIDs to one of a fixed number of shards using jump consistent
+ * hashing (Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash
+ * Algorithm"). When the number of shards grows from <i>n</i> to <i>n + 1</i>
+ * only about <i>1 / (n + 1)</i> of the UUIDs move, all of them to the new
+ * shard.</p>
+ *
+ * <p>The mapping is stable and may be reproduced by other services:</p>
+ * <ol>
+ *   <li>Take the 128 bits of the UUID as two unsigned big endian 64-bit
+ *   halves, <code>msb</code> and <code>lsb</code>.</li>
+ *   <li>Compute the routing key
+ *   <code>key = fmix64(msb ^ fmix64(lsb))</code>, where <code>fmix64</code>
+ *   is the MurmurHash3 64-bit finalizer (see
+ *   {@link HashUtils#hash128To64(long, long)}).</li>
+ *   <li>Return <code>JumpConsistentHash(key, shards)</code> exactly as
+ *   published in the paper referenced above.</li>
+ * </ol>
+ *
+ * <p><b>This mapping differs from that of
+ * {@link ShardedVersionFourGenerator}</b>, which routes by the top 32 bits of
+ * a UUID so that it can create ids for a chosen shard. A UUID created by that
+ * generator for shard <i>k</i> is in general not routed to <i>k</i> here. A
+ * deployment must route every UUID with one of the two: this class for UUIDs
+ * of any origin, {@link ShardedVersionFourGenerator#shardOf(UUID, int)} for
+ * UUIDs created by the generator.</p>
+ *
+ * <p>Batch methods take UUIDs packed into a <code>long[]</code> as
+ * consecutive <code>msb, lsb</code> pairs; UUID <i>i</i> of a batch starting
+ * at <code>offset</code> occupies <code>packed[offset + 2i]</code> and
+ * <code>packed[offset + 2i + 1]</code>. Instances are immutable and thread
+ * safe. Only {@link #shard(long[], int, int, int[], int)} is free of
+ * allocation; {@link #shard(long[])} returns a new array.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDSharder {
+
+    /** Multiplier of the linear congruential generator used by the jump hash. */
+    private static final long JUMP_MULTIPLIER = 2862933555777941757L;
+
+    /** 2^31 as a double, the numerator of the jump hash step. */
+    private static final double JUMP_SCALE = (double) (1L << 31);
+
+    /** The number of shards routed to. */
+    private final int shards;
+
+    /**
+     * <p>Constructs a sharder routing to the given number of shards.</p>
+     *
+     * @param shards the number of shards, must be positive.
+     * @throws IllegalArgumentException if shards is not positive.
+     */
+    public UUIDSharder(int shards) {
+        super();
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive.");
+        }
+        this.shards = shards;
+    }
+
+    /**
+     * <p>Returns the number of shards routed to.</p>
+     *
+     * @return the number of shards routed to.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * <p>Returns the shard owning the UUID.</p>
+     *
+     * @param uuid the UUID to route.
+     * @return the shard index, in <code>[0, shards)</code>.
+     */
+    public int shard(UUID uuid) {
+        return shard(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Returns the shard owning the UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits of the UUID.
+     * @param leastSignificant the least significant 64 bits of the UUID.
+     * @return the shard index, in <code>[0, shards)</code>.
+     */
+    public int shard(long mostSignificant, long leastSignificant) {
+        return jumpConsistentHash(HashUtils.hash128To64(mostSignificant, leastSignificant), shards);
+    }
+
+    /**
+     * <p>Routes a batch of packed UUIDs.</p>
+     *
+     * @param packed the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     * @param offset the index in packed of the first UUID's msb.
+     * @param count the number of UUIDs to route.
+     * @param result receives the shard of UUID <i>i</i> at <code>resultOffset + i</code>.
+     * @param resultOffset the index in result of the first shard.
+     */
+    public void shard(long[] packed, int offset, int count, int[] result, int resultOffset) {
+        int n = shards;
+        for (int i = 0, p = offset; i < count; i++, p += 2) {
+            result[resultOffset + i] = jumpConsistentHash(HashUtils.hash128To64(packed[p], packed[p + 1]), n);
+        }
+    }
+
+    /**
+     * <p>Routes every UUID in a packed array.</p>
+     *
+     * @param packed the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     * @return the shard of each UUID, in order.
+     * @throws IllegalArgumentException if packed has an odd length.
+     */
+    public int[] shard(long[] packed) {
+        if ((packed.length & 0x01) != 0) {
+            throw new IllegalArgumentException("Packed UUIDs must have an even number of longs.");
+        }
+        int[] result = new int[packed.length >> 1];
+        shard(packed, 0, result.length, result, 0);
+        return result;
+    }
+
+    /**
+     * <p>The jump consistent hash of Lamping and Veach: maps a 64-bit key to
+     * a bucket in <code>[0, buckets)</code> such that increasing the number
+     * of buckets moves the minimum number of keys.</p>
+     *
+     * @param key the 64-bit key, which should already be well mixed.
+     * @param buckets the number of buckets, must be positive.
+     * @return the bucket index, in <code>[0, buckets)</code>.
+     */
+    public static int jumpConsistentHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * JUMP_MULTIPLIER + 1;
+            j = (long) ((b + 1) * (JUMP_SCALE / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import org.apache.commons.id.Hex;
+
+/**
+ * <p>Static methods reading the UUID string format directly from a
+ * <code>CharSequence</code>, without intermediate strings or arrays. The
+ * accepted format is the one of {@link UUID#fromString(String)}: 36
+ * characters with dashes at positions 8, 13, 18 and 23 and hex digits of
+ * either case elsewhere, optionally after a prefix ending in a colon such as
+ * <code>urn:uuid:</code>.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+final class UUIDStrings implements Constants {
+
+    /** The position in the formatted string of each of the 32 hex digits. */
+    static final int[] DIGIT_POSITIONS = new int[UUID_UNFORMATTED_LENGTH];
+
+    static {
+        for (int i = 0, pos = 0; pos < UUID_FORMATTED_LENGTH; pos++) {
+            if (pos != FORMAT_POSITION1 && pos != FORMAT_POSITION2
+                    && pos != FORMAT_POSITION3 && pos != FORMAT_POSITION4) {
+                DIGIT_POSITIONS[i++] = pos;
+            }
+        }
+    }
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private UUIDStrings() {
+    }
+
+    /**
+     * <p>Returns where the 36 formatted characters start, skipping a prefix
+     * such as <code>urn:uuid:</code> the same way
+     * {@link UUID#fromString(String)} does.</p>
+     *
+     * @param s the UUID string.
+     * @return the offset of the formatted characters, or -1 if the length is wrong.
+     */
+    static int start(CharSequence s) {
+        int length = s.length();
+        if (length == UUID_FORMATTED_LENGTH) {
+            return 0;
+        }
+        for (int pos = length - 1; pos > 1; pos--) {
+            if (s.charAt(pos) == ':') {
+                return length - pos - 1 == UUID_FORMATTED_LENGTH ? pos + 1 : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>Returns whether the four dashes are in place.</p>
+     *
+     * @param s the UUID string.
+     * @param start the offset of the formatted characters.
+     * @return true if all four dashes are present.
+     */
+    static boolean hasDashes(CharSequence s, int start) {
+        return s.charAt(start + FORMAT_POSITION1) == '-'
+                && s.charAt(start + FORMAT_POSITION2) == '-'
+                && s.charAt(start + FORMAT_POSITION3) == '-'
+                && s.charAt(start + FORMAT_POSITION4) == '-';
+    }
+
+    /**
+     * <p>Decodes one byte of the UUID from its two hex digits.</p>
+     *
+     * @param s the UUID string.
+     * @param start the offset of the formatted characters.
+     * @param index the byte index, 0 to 15.
+     * @return the unsigned byte value, or -1 if either digit is not hex.
+     */
+    static int byteAt(CharSequence s, int start, int index) {
+        int hi = Hex.decodeDigit(s.charAt(start + DIGIT_POSITIONS[2 * index]));
+        int lo = Hex.decodeDigit(s.charAt(start + DIGIT_POSITIONS[2 * index + 1]));
+        return (hi | lo) < 0 ? -1 : (hi << 4) | lo;
+    }
+
+    /**
+     * <p>Formats a UUID given by its two halves as 36 lower case characters.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @param out the array receiving the characters.
+     * @param offset the index in out of the first character.
+     */
+    static void format(long mostSignificant, long leastSignificant, char[] out, int offset) {
+        Hex.encodeHex(mostSignificant >>> 32, out, offset, 8);
+        out[offset + FORMAT_POSITION1] = '-';
+        Hex.encodeHex(mostSignificant >>> 16, out, offset + FORMAT_POSITION1 + 1, 4);
+        out[offset + FORMAT_POSITION2] = '-';
+        Hex.encodeHex(mostSignificant, out, offset + FORMAT_POSITION2 + 1, 4);
+        out[offset + FORMAT_POSITION3] = '-';
+        Hex.encodeHex(leastSignificant >>> 48, out, offset + FORMAT_POSITION3 + 1, 4);
+        out[offset + FORMAT_POSITION4] = '-';
+        Hex.encodeHex(leastSignificant, out, offset + FORMAT_POSITION4 + 1, 12);
+    }
+
+    /**
+     * <p>Formats a UUID given by its two halves as a new string.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the 36 character string form.
+     */
+    static String format(long mostSignificant, long leastSignificant) {
+        char[] out = new char[UUID_FORMATTED_LENGTH];
+        format(mostSignificant, leastSignificant, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * <p>Returns whether a string is a valid UUID string.</p>
+     *
+     * @param s the string to check.
+     * @return true if {@link #decode(CharSequence)} would succeed.
+     */
+    static boolean isValid(CharSequence s) {
+        int start = start(s);
+        if (start < 0 || !hasDashes(s, start)) {
+            return false;
+        }
+        int bad = 0;
+        for (int i = 0; i < UUID_UNFORMATTED_LENGTH; i++) {
+            bad |= Hex.decodeDigit(s.charAt(start + DIGIT_POSITIONS[i]));
+        }
+        return bad >= 0;
+    }
+
+    /**
+     * <p>Decodes a UUID string into a new 16 byte array.</p>
+     *
+     * @param s the UUID string.
+     * @return the 16 bytes of the UUID.
+     * @throws UUIDFormatException if the string is not a valid UUID string.
+     */
+    static byte[] decode(CharSequence s) throws UUIDFormatException {
+        int start = start(s);
+        if (start < 0 || !hasDashes(s, start)) {
+            throw new UUIDFormatException(s.toString());
+        }
+        byte[] raw = new byte[UUID_BYTE_LENGTH];
+        int bad = 0;
+        for (int i = 0; i < UUID_BYTE_LENGTH; i++) {
+            int b = byteAt(s, start, i);
+            bad |= b;
+            raw[i] = (byte) b;
+        }
+        if (bad < 0) {
+            throw new UUIDFormatException(s.toString());
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Static methods validating many UUID strings at once, for bulk ingestion
+ * where calling {@link UUID#fromString(String)} in a try/catch per row is too
+ * slow. Validation never throws for malformed input and allocates nothing but
+ * the result.</p>
+ *
+ * <p>The result of each method is a bitmap of the invalid rows: row
+ * <code>r</code> is invalid if bit <code>r &amp; 63</code> of word
+ * <code>r &gt;&gt;&gt; 6</code> is set, as tested by
+ * {@link #isSet(long[], int)}.</p>
+ *
+ * <p>Fixed width ASCII regions are checked eight bytes at a time with
+ * arithmetic on <code>long</code> words, so each 36 byte id costs four long
+ * reads, one int read and a few dozen branch free operations.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDValidator implements Constants {
+
+    /** The low bit of every byte lane. */
+    private static final long ONES = 0x0101010101010101L;
+
+    /** The high bit of every byte lane. */
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /** Every lane holding '-'. */
+    private static final long DASHES = '-' * ONES;
+
+    /** Every lane holding '0'. */
+    private static final long ZEROS = '0' * ONES;
+
+    /** Every lane holding 0x20, the ASCII case bit. */
+    private static final long CASE_BITS = 0x20 * ONES;
+
+    /** The dash lanes, bytes 8 and 13, of the second word of an id. */
+    private static final long DASH_LANES_1 = 0xFF00000000FF0000L;
+
+    /** The dash lanes, bytes 18 and 23, of the third word of an id. */
+    private static final long DASH_LANES_2 = 0x0000FF00000000FFL;
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private UUIDValidator() {
+    }
+
+    /**
+     * <p>Validates a column of UUID strings. Each string may be in any form
+     * {@link UUID#fromString(String)} accepts; null entries are invalid.</p>
+     *
+     * @param column the strings to validate.
+     * @return a bitmap with the bits of the invalid rows set.
+     */
+    public static long[] validate(CharSequence[] column) {
+        return validate(column, 0, column.length);
+    }
+
+    /**
+     * <p>Validates part of a column of UUID strings. Row <code>r</code> of
+     * the result is <code>column[offset + r]</code>.</p>
+     *
+     * @param column the strings to validate.
+     * @param offset the index of the first string.
+     * @param rows the number of strings to validate.
+     * @return a bitmap with the bits of the invalid rows set.
+     * @throws IndexOutOfBoundsException if the rows are not all within column.
+     */
+    public static long[] validate(CharSequence[] column, int offset, int rows) {
+        if (offset < 0 || rows < 0 || offset > column.length - rows) {
+            throw new IndexOutOfBoundsException("Rows " + offset + " to " + (offset + rows)
+                    + " are not within a column of " + column.length);
+        }
+        long[] invalid = new long[bitmapLength(rows)];
+        for (int r = 0; r < rows; r++) {
+            CharSequence s = column[offset + r];
+            if (s == null || !UUIDStrings.isValid(s)) {
+                invalid[r >>> 6] |= 1L << r;
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * <p>Validates fixed width ids in an ASCII byte array.</p>
+     *
+     * @param ascii the bytes holding the ids.
+     * @param offset the index of the first id's first byte.
+     * @param stride the distance in bytes between the starts of consecutive
+     *  ids, at least 36; for example 37 for newline separated ids.
+     * @param rows the number of ids to validate.
+     * @return a bitmap with the bits of the invalid rows set.
+     * @throws IndexOutOfBoundsException if the ids are not all within the array.
+     * @see #validate(ByteBuffer, int, int, int)
+     */
+    public static long[] validate(byte[] ascii, int offset, int stride, int rows) {
+        return validate(ByteBuffer.wrap(ascii), offset, stride, rows);
+    }
+
+    /**
+     * <p>Validates fixed width ids in an ASCII region of a buffer. Each id is
+     * exactly 36 bytes: hex digits of either case with dashes at positions
+     * 8, 13, 18 and 23. Any other byte, including a non-ASCII one, makes the
+     * row invalid. The buffer's position, limit and byte order are ignored
+     * and left untouched.</p>
+     *
+     * @param region the buffer holding the ids; heap, direct and mapped
+     *  buffers are all supported.
+     * @param offset the absolute index of the first id's first byte.
+     * @param stride the distance in bytes between the starts of consecutive
+     *  ids, at least 36.
+     * @param rows the number of ids to validate.
+     * @return a bitmap with the bits of the invalid rows set.
+     * @throws IllegalArgumentException if stride is less than 36.
+     * @throws IndexOutOfBoundsException if the ids are not all within the buffer's limit.
+     */
+    public static long[] validate(ByteBuffer region, int offset, int stride, int rows) {
+        if (stride < UUID_FORMATTED_LENGTH) {
+            throw new IllegalArgumentException("The stride must be at least " + UUID_FORMATTED_LENGTH);
+        }
+        if (offset < 0 || rows < 0 || (rows > 0
+                && offset + (long) (rows - 1) * stride + UUID_FORMATTED_LENGTH > region.limit())) {
+            throw new IndexOutOfBoundsException(rows + " ids of stride " + stride + " at " + offset
+                    + " are not within a buffer of " + region.limit());
+        }
+        boolean swap = region.order() != ByteOrder.BIG_ENDIAN;
+        long[] invalid = new long[bitmapLength(rows)];
+        int pos = offset;
+        for (int r = 0; r < rows; r++, pos += stride) {
+            long w0 = region.getLong(pos);
+            long w1 = region.getLong(pos + 8);
+            long w2 = region.getLong(pos + 16);
+            long w3 = region.getLong(pos + 24);
+            int w4 = region.getInt(pos + 32);
+            if (swap) {
+                w0 = Long.reverseBytes(w0);
+                w1 = Long.reverseBytes(w1);
+                w2 = Long.reverseBytes(w2);
+                w3 = Long.reverseBytes(w3);
+                w4 = Integer.reverseBytes(w4);
+            }
+            // the dash lanes must hold '-' and are then checked as if they held '0'
+            boolean dashes = (w1 & DASH_LANES_1) == (DASHES & DASH_LANES_1)
+                    && (w2 & DASH_LANES_2) == (DASHES & DASH_LANES_2);
+            w1 = (w1 & ~DASH_LANES_1) | (ZEROS & DASH_LANES_1);
+            w2 = (w2 & ~DASH_LANES_2) | (ZEROS & DASH_LANES_2);
+            long last = (ZEROS << 32) | (w4 & 0xFFFFFFFFL);
+            long bad = nonHexLanes(w0) | nonHexLanes(w1) | nonHexLanes(w2)
+                    | nonHexLanes(w3) | nonHexLanes(last);
+            if (bad != 0 || !dashes) {
+                invalid[r >>> 6] |= 1L << r;
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * <p>Returns whether a row's bit is set in a bitmap.</p>
+     *
+     * @param bitmap a bitmap returned by one of the validate methods.
+     * @param row the row.
+     * @return true if the row's bit is set.
+     */
+    public static boolean isSet(long[] bitmap, int row) {
+        return (bitmap[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * <p>Returns the number of set bits in a bitmap.</p>
+     *
+     * @param bitmap a bitmap returned by one of the validate methods.
+     * @return the number of rows whose bit is set.
+     */
+    public static int cardinality(long[] bitmap) {
+        int count = 0;
+        for (int i = 0; i < bitmap.length; i++) {
+            count += Long.bitCount(bitmap[i]);
+        }
+        return count;
+    }
+
+    /**
+     * <p>Returns the number of words needed for a bitmap of rows.</p>
+     *
+     * @param rows the number of rows.
+     * @return the bitmap length.
+     */
+    private static int bitmapLength(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    /**
+     * <p>Returns the high bit of every lane of eight ASCII bytes that is not
+     * a hex digit, or that is not ASCII at all.</p>
+     *
+     * @param word eight bytes.
+     * @return the high bits of the offending lanes; zero if all eight are hex digits.
+     */
+    private static long nonHexLanes(long word) {
+        long nonAscii = word & HIGHS;
+        long x = word & ~HIGHS;
+        long lower = x | CASE_BITS;
+        long digit = atLeast(x, '0') & ~atLeast(x, '9' + 1);
+        long letter = atLeast(lower, 'a') & ~atLeast(lower, 'f' + 1);
+        return nonAscii | (~(digit | letter) & HIGHS);
+    }
+
+    /**
+     * <p>Compares every lane of seven bit values with a constant. No carry
+     * can cross lanes because each lane and the addend are at most 0x80.</p>
+     *
+     * @param x eight lanes each below 0x80.
+     * @param n the constant, 1 to 0x80.
+     * @return the high bit of every lane that is at least n.
+     */
+    private static long atLeast(long x, int n) {
+        return (x + (0x80 - n) * ONES) & HIGHS;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.commons.id.HashUtils;
+
+/**
+ * <p>Name-based UUIDs of version 8 (custom), for deterministic ids derived
+ * from content keys where the cryptographic properties of the MD5 and SHA-1
+ * based versions 3 and 5 of {@link UUID#nameUUIDFromString(String, UUID, String)}
+ * are not needed. The hash is MurmurHash3_x64_128, several times cheaper
+ * than either digest, and names are hashed straight from a
+ * <code>byte[]</code>, a <code>CharSequence</code> or a
+ * <code>ByteBuffer</code> without being copied.</p>
+ *
+ * <p>The UUID of a name in a namespace is defined as follows, and can be
+ * reproduced with any implementation of MurmurHash3_x64_128:</p>
+ * <ol>
+ * <li>Hash the 16 bytes of the namespace UUID in network order, followed by
+ * the bytes of the name, with MurmurHash3_x64_128 and seed 0. A
+ * <code>CharSequence</code> name is hashed as its UTF-8 encoding, with
+ * unpaired surrogates encoded as <code>'?'</code> as by
+ * <code>String.getBytes("UTF-8")</code>.</li>
+ * <li>Take the 16 bytes of output of the reference implementation, that is
+ * the two 64-bit halves <code>h1</code> and <code>h2</code> each in little
+ * endian order, as the UUID bytes 0 to 15.</li>
+ * <li>Set the high nibble of byte 6 to 8, the version, and the two high bits
+ * of byte 8 to binary 10, the IETF variant.</li>
+ * </ol>
+ * <p>These UUIDs are not unguessable and, like any 122-bit hash, not
+ * collision proof against a deliberate attacker; use version 5 for names
+ * chosen by untrusted parties.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class VersionEightNameUUID implements Constants {
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private VersionEightNameUUID() {
+    }
+
+    /**
+     * <p>Returns the version 8 UUID of a name given as characters.</p>
+     *
+     * @param name the name, hashed as UTF-8.
+     * @param namespace the namespace.
+     * @return the name-based UUID.
+     */
+    public static UUID nameUUIDFromString(CharSequence name, UUID namespace) {
+        Murmur3 hash = new Murmur3(namespace);
+        hash.update(name);
+        return hash.toUUID();
+    }
+
+    /**
+     * <p>Returns the version 8 UUID of a name given as bytes.</p>
+     *
+     * @param name the array holding the name.
+     * @param offset the index in name of the first byte.
+     * @param length the number of bytes.
+     * @param namespace the namespace.
+     * @return the name-based UUID.
+     * @throws IndexOutOfBoundsException if the bytes are out of bounds.
+     */
+    public static UUID nameUUIDFromBytes(byte[] name, int offset, int length, UUID namespace) {
+        if (offset < 0 || length < 0 || offset > name.length - length) {
+            throw new IndexOutOfBoundsException("No " + length + " bytes at " + offset);
+        }
+        Murmur3 hash = new Murmur3(namespace);
+        hash.update(name, offset, length);
+        return hash.toUUID();
+    }
+
+    /**
+     * <p>Returns the version 8 UUID of a name given as the remaining bytes of
+     * a buffer. The position of the buffer is not changed.</p>
+     *
+     * @param name the buffer holding the name between its position and limit.
+     * @param namespace the namespace.
+     * @return the name-based UUID.
+     */
+    public static UUID nameUUIDFromBuffer(ByteBuffer name, UUID namespace) {
+        Murmur3 hash = new Murmur3(namespace);
+        hash.update(name, name.position(), name.remaining());
+        return hash.toUUID();
+    }
+
+    /**
+     * <p>Computes the version 8 UUIDs of many names in one namespace, without
+     * creating a <code>UUID</code> per name.</p>
+     *
+     * @param names the names, hashed as UTF-8.
+     * @param namespace the namespace.
+     * @param packed receives the UUIDs as consecutive <code>msb, lsb</code>
+     *  pairs, at least twice as long as names.
+     * @throws IllegalArgumentException if packed is too short.
+     */
+    public static void nameUUIDsFromStrings(CharSequence[] names, UUID namespace, long[] packed) {
+        if (packed.length < 2 * names.length) {
+            throw new IllegalArgumentException("The output holds " + packed.length / 2 + " UUIDs, not "
+                    + names.length);
+        }
+        Murmur3 hash = new Murmur3(namespace);
+        for (int i = 0; i < names.length; i++) {
+            hash.reset();
+            hash.update(names[i]);
+            hash.finish();
+            packed[2 * i] = hash.mostSignificant();
+            packed[2 * i + 1] = hash.leastSignificant();
+        }
+    }
+
+    /**
+     * <p>A streaming MurmurHash3_x64_128 with seed 0, starting with the
+     * block of a namespace UUID, which is exactly one block long.</p>
+     */
+    private static final class Murmur3 {
+
+        /** The first multiplier. */
+        private static final long C1 = 0x87c37b91114253d5L;
+
+        /** The second multiplier. */
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        /** The state after the namespace block. */
+        private final long namespaceH1;
+
+        /** The state after the namespace block. */
+        private final long namespaceH2;
+
+        /** The first half of the state. */
+        private long h1;
+
+        /** The second half of the state. */
+        private long h2;
+
+        /** Bytes 0 to 7 of the pending block, little endian. */
+        private long k1;
+
+        /** Bytes 8 to 15 of the pending block, little endian. */
+        private long k2;
+
+        /** The number of bytes in the pending block. */
+        private int pending;
+
+        /** The number of bytes hashed. */
+        private long length;
+
+        /**
+         * <p>Starts a hash with the bytes of a namespace.</p>
+         *
+         * @param namespace the namespace.
+         */
+        Murmur3(UUID namespace) {
+            h1 = 0;
+            h2 = 0;
+            block(Long.reverseBytes(namespace.getMostSignificantBits()),
+                    Long.reverseBytes(namespace.getLeastSignificantBits()));
+            namespaceH1 = h1;
+            namespaceH2 = h2;
+            length = UUID_BYTE_LENGTH;
+        }
+
+        /**
+         * <p>Returns to the state right after the namespace.</p>
+         */
+        void reset() {
+            h1 = namespaceH1;
+            h2 = namespaceH2;
+            k1 = 0;
+            k2 = 0;
+            pending = 0;
+            length = UUID_BYTE_LENGTH;
+        }
+
+        /**
+         * <p>Mixes a block of 16 bytes into the state.</p>
+         *
+         * @param b1 bytes 0 to 7, little endian.
+         * @param b2 bytes 8 to 15, little endian.
+         */
+        private void block(long b1, long b2) {
+            h1 ^= mixK1(b1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(b2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        /**
+         * <p>Appends one byte.</p>
+         *
+         * @param b the byte, in the low 8 bits.
+         */
+        private void update(int b) {
+            long value = b & 0xFFL;
+            if (pending < 8) {
+                k1 |= value << (pending << 3);
+            } else {
+                k2 |= value << ((pending - 8) << 3);
+            }
+            if (++pending == 16) {
+                block(k1, k2);
+                k1 = 0;
+                k2 = 0;
+                pending = 0;
+            }
+            length++;
+        }
+
+        /**
+         * <p>Appends bytes of an array, whole blocks at a time once the
+         * pending block is complete.</p>
+         *
+         * @param bytes the array.
+         * @param offset the index of the first byte.
+         * @param count the number of bytes.
+         */
+        void update(byte[] bytes, int offset, int count) {
+            int end = offset + count;
+            while (pending != 0 && offset < end) {
+                update(bytes[offset++]);
+            }
+            for (; end - offset >= 16; offset += 16) {
+                block(littleEndian(bytes, offset), littleEndian(bytes, offset + 8));
+                length += 16;
+            }
+            while (offset < end) {
+                update(bytes[offset++]);
+            }
+        }
+
+        /**
+         * <p>Appends bytes of a buffer, whole blocks at a time once the
+         * pending block is complete.</p>
+         *
+         * @param buffer the buffer.
+         * @param index the index of the first byte.
+         * @param count the number of bytes.
+         */
+        void update(ByteBuffer buffer, int index, int count) {
+            int end = index + count;
+            while (pending != 0 && index < end) {
+                update(buffer.get(index++));
+            }
+            boolean swap = buffer.order() == ByteOrder.BIG_ENDIAN;
+            for (; end - index >= 16; index += 16) {
+                long b1 = buffer.getLong(index);
+                long b2 = buffer.getLong(index + 8);
+                block(swap ? Long.reverseBytes(b1) : b1, swap ? Long.reverseBytes(b2) : b2);
+                length += 16;
+            }
+            while (index < end) {
+                update(buffer.get(index++));
+            }
+        }
+
+        /**
+         * <p>Appends the UTF-8 encoding of characters.</p>
+         *
+         * @param chars the characters.
+         */
+        void update(CharSequence chars) {
+            int count = chars.length();
+            for (int i = 0; i < count; i++) {
+                char c = chars.charAt(i);
+                if (c < 0x80) {
+                    update(c);
+                } else if (c < 0x800) {
+                    update(0xC0 | (c >>> 6));
+                    update(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < count
+                        && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, chars.charAt(++i));
+                    update(0xF0 | (cp >>> 18));
+                    update(0x80 | ((cp >>> 12) & 0x3F));
+                    update(0x80 | ((cp >>> 6) & 0x3F));
+                    update(0x80 | (cp & 0x3F));
+                } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                    update('?');
+                } else {
+                    update(0xE0 | (c >>> 12));
+                    update(0x80 | ((c >>> 6) & 0x3F));
+                    update(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * <p>Mixes in the pending bytes and the length, completing the hash.</p>
+         */
+        void finish() {
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = HashUtils.mix64(h1);
+            h2 = HashUtils.mix64(h2);
+            h1 += h2;
+            h2 += h1;
+        }
+
+        /**
+         * <p>Returns the most significant bits of the UUID of a finished hash.</p>
+         *
+         * @return bytes 0 to 7 of the hash with the version set.
+         */
+        long mostSignificant() {
+            return (Long.reverseBytes(h1) & ~0xF000L) | ((long) VERSION_EIGHT << 12);
+        }
+
+        /**
+         * <p>Returns the least significant bits of the UUID of a finished hash.</p>
+         *
+         * @return bytes 8 to 15 of the hash with the variant set.
+         */
+        long leastSignificant() {
+            return (Long.reverseBytes(h2) & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        }
+
+        /**
+         * <p>Finishes the hash and returns its UUID.</p>
+         *
+         * @return the UUID.
+         */
+        UUID toUUID() {
+            finish();
+            return new UUID(mostSignificant(), leastSignificant());
+        }
+
+        /**
+         * <p>Scrambles the first half of a block.</p>
+         *
+         * @param k the bytes, little endian.
+         * @return the scrambled value.
+         */
+        private static long mixK1(long k) {
+            return Long.rotateLeft(k * C1, 31) * C2;
+        }
+
+        /**
+         * <p>Scrambles the second half of a block.</p>
+         *
+         * @param k the bytes, little endian.
+         * @return the scrambled value.
+         */
+        private static long mixK2(long k) {
+            return Long.rotateLeft(k * C2, 33) * C1;
+        }
+
+        /**
+         * <p>Reads eight bytes in little endian order.</p>
+         *
+         * @param bytes the array.
+         * @param offset the index of the first byte.
+         * @return the value.
+         */
+        private static long littleEndian(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xFFL)
+                    | (bytes[offset + 1] & 0xFFL) << 8
+                    | (bytes[offset + 2] & 0xFFL) << 16
+                    | (bytes[offset + 3] & 0xFFL) << 24
+                    | (bytes[offset + 4] & 0xFFL) << 32
+                    | (bytes[offset + 5] & 0xFFL) << 40
+                    | (bytes[offset + 6] & 0xFFL) << 48
+                    | (bytes[offset + 7] & 0xFFL) << 56;
+        }
+    }
+}
@@ -17,6 +17,9 @@
 package org.apache.commons.id.uuid;
 
 import org.apache.commons.id.IdentifierGenerator;
+import org.apache.commons.id.random.SecureEntropyPool;
+import org.apache.commons.id.random.StripedSecureRandom;
+import org.apache.commons.id.random.Xoshiro256StarStar;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -34,6 +37,21 @@ import java.util.Random;
  * constructor therefore creates a static member to hold the SecureRandom.
  * The first call to getInstance may take time; subsequent calls should return
  * quickly.</p>
+ * <p>All threads share the one static <code>java.util.Random</code> by default,
+ * and contend for its seed. A generator constructed with
+ * {@link #VersionFourGenerator(boolean) perThread} set, or returned by
+ * {@link #getPerThreadInstance()}, instead draws non-secure UUID's from the calling
+ * thread's own {@link Xoshiro256StarStar}, two longs per UUID, and scales with the
+ * number of threads. Secure UUID's are unaffected.</p>
+ * <p>Secure UUID's likewise all pass through the one <code>SecureRandom</code>.
+ * After {@link #setSecureEntropyPool(SecureEntropyPool)} they take their bytes
+ * from a {@link SecureEntropyPool} instead, which reads the source in large blocks
+ * on a background thread and hands out slices without locking. Alternatively
+ * {@link #setSecureRandom(SecureRandom)} installs any <code>SecureRandom</code>, such
+ * as a {@link StripedSecureRandom} with one independently seeded instance per
+ * processor, so that threads generating secure UUID's mostly take different locks.
+ * Its stripes must keep their own state; the default ones do, while
+ * <code>NativePRNG</code> instances all share one.</p>
  *
  * @author Commons-Id team
  * @version $Revision: 480488 $ $Date: 2006-11-29 00:57:26 -0800 (Wed, 29 Nov 2006) $
@@ -45,7 +63,10 @@ public final class VersionFourGenerator implements IdentifierGenerator, Constant
         private static final Random regularRandom = new Random();
 
         /** SecureRandom used to generate UUID's */
-        private static Random secureRandom;
+        private static volatile Random secureRandom;
+
+        /** The pool secure UUID's draw from, if any */
+        private static volatile SecureEntropyPool securePool;
 
         /** The pseudo-random number generator to use */
         private static String usePRNG = "SHA1PRNG";
@@ -55,11 +76,28 @@ public final class VersionFourGenerator implements IdentifierGenerator, Constant
         
         private static VersionFourGenerator generator;
 
+        private static VersionFourGenerator perThreadGenerator;
+
+        /** Whether non-secure UUID's come from the calling thread's generator */
+        private final boolean perThread;
+
         /**
          * <p>Constructs a new VersionFourGenerator.</p>
          */
         public VersionFourGenerator() {
+            this(false);
+        }
+
+        /**
+         * <p>Constructs a new VersionFourGenerator, optionally drawing the random bits of
+         * non-secure UUID's from a generator owned by the calling thread rather than from
+         * the shared <code>Random</code>.</p>
+         *
+         * @param perThread whether to use the calling thread's {@link Xoshiro256StarStar}.
+         */
+        public VersionFourGenerator(boolean perThread) {
             super();
+            this.perThread = perThread;
         }
 
         /**
@@ -74,6 +112,28 @@ public final class VersionFourGenerator implements IdentifierGenerator, Constant
                 return generator;
         }
 
+        /**
+         * <p>Returns a singleton instance of the version four UUID generator that draws
+         * non-secure UUID's from per-thread generators.</p>
+         *
+         * @return the singleton per-thread instance of the version four UUID generator.
+         */
+        public static VersionFourGenerator getPerThreadInstance() {
+                if (perThreadGenerator == null) {
+                    perThreadGenerator = new VersionFourGenerator(true);
+                }
+                return perThreadGenerator;
+        }
+
+        /**
+         * <p>Returns whether non-secure UUID's come from per-thread generators.</p>
+         *
+         * @return true if this generator was constructed in per-thread mode.
+         */
+        public boolean isPerThread() {
+            return perThread;
+        }
+
         /**
          * <p>Returns a new version four UUID.</p>
          *
@@ -113,8 +173,17 @@ public final class VersionFourGenerator implements IdentifierGenerator, Constant
          * @return a new version four UUID using either <code>SecureRandom</code> or <code>Random</code>.
          */
         private UUID nextUUID(boolean secure) {
+            if (perThread && !secure) {
+                Xoshiro256StarStar random = Xoshiro256StarStar.current();
+                long msb = (random.nextLong() & 0xFFFFFFFFFFFF0FFFL) | ((long) VERSION_FOUR << 12);
+                long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+                return new UUID(msb, lsb);
+            }
             byte[] raw = new byte[UUID_BYTE_LENGTH];
-            if (secure) {
+            SecureEntropyPool pool = securePool;
+            if (secure && pool != null) {
+                pool.nextBytes(raw);
+            } else if (secure) {
                 //Initialize the secure random if null.
                 if (secureRandom == null) {
                     try {
@@ -148,7 +217,8 @@ public final class VersionFourGenerator implements IdentifierGenerator, Constant
        /**
         * <p>Allows clients to set the pseudo-random number generator implementation used when generating a version four uuid with
         * the secure option. The secure option uses a <code>SecureRandom</code>. The packageName string may be null to specify
-        * no preferred package.</p>
+        * no preferred package. A pool installed with {@link #setSecureEntropyPool(SecureEntropyPool)} still takes
+        * precedence.</p>
         *
         * @param prngName the pseudo-random number generator implementation name. For example "SHA1PRNG".
         * @param packageName the package name for the PRNG provider. For example "SUN".
@@ -158,4 +228,36 @@ public final class VersionFourGenerator implements IdentifierGenerator, Constant
            VersionFourGenerator.usePRNGPackage = packageName;
            VersionFourGenerator.secureRandom = null;
        }
+
+       /**
+        * <p>Allows clients to set the <code>SecureRandom</code> used when generating a version four uuid with the
+        * secure option, in place of the one created from the name given to
+        * {@link #setPRNGProvider(String, String)}. A later call to that method discards it.</p>
+        * <p>A pool installed with {@link #setSecureEntropyPool(SecureEntropyPool)} takes precedence over any
+        * <code>SecureRandom</code>, so this method removes it; of the two setters, the last one called decides
+        * where secure UUID's come from.</p>
+        *
+        * @param random the secure random, for example <code>new StripedSecureRandom()</code>.
+        * @throws IllegalArgumentException if random is null.
+        */
+       public static void setSecureRandom(SecureRandom random) {
+           if (random == null) {
+               throw new IllegalArgumentException("The secure random must not be null.");
+           }
+           VersionFourGenerator.securePool = null;
+           VersionFourGenerator.secureRandom = random;
+       }
+
+       /**
+        * <p>Allows clients to have UUID's generated with the secure option take their random bytes from a pool rather
+        * than from the <code>SecureRandom</code> chosen by {@link #setPRNGProvider(String, String)}. The pool may be
+        * null to go back to the <code>SecureRandom</code>. While a pool is installed it takes precedence over the
+        * <code>SecureRandom</code>, including one given to {@link #setSecureRandom(SecureRandom)} before; a later
+        * call to that method removes the pool. A pool replaced or removed is not closed.</p>
+        *
+        * @param pool the entropy pool, for example <code>new SecureEntropyPool()</code>, or null.
+        */
+       public static void setSecureEntropyPool(SecureEntropyPool pool) {
+           VersionFourGenerator.securePool = pool;
+       }
     }
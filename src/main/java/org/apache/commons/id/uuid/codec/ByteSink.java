@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.codec;
+
+/**
+ * <p>A growable byte array the codecs write into, with the variable length
+ * integer encoding they share: seven bits per byte, least significant group
+ * first, the high bit set on every byte but the last.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+final class ByteSink {
+
+    /** The bytes written so far, followed by spare capacity. */
+    private byte[] bytes;
+
+    /** The number of bytes written. */
+    private int length;
+
+    /**
+     * <p>Constructs an empty sink.</p>
+     *
+     * @param capacity the initial capacity in bytes.
+     */
+    ByteSink(int capacity) {
+        bytes = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * <p>Returns the number of bytes written.</p>
+     *
+     * @return the length.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * <p>Makes room for more bytes.</p>
+     *
+     * @param more the number of bytes about to be written.
+     */
+    private void ensure(int more) {
+        if (length + more > bytes.length) {
+            byte[] grown = new byte[Math.max(length + more, 2 * bytes.length)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+
+    /**
+     * <p>Writes one byte.</p>
+     *
+     * @param b the byte, in the low 8 bits.
+     */
+    void writeByte(int b) {
+        ensure(1);
+        bytes[length++] = (byte) b;
+    }
+
+    /**
+     * <p>Writes a big endian int.</p>
+     *
+     * @param value the value.
+     */
+    void writeInt(int value) {
+        writeBytes(value, 4);
+    }
+
+    /**
+     * <p>Writes the low bytes of a value, most significant first.</p>
+     *
+     * @param value the value.
+     * @param count the number of low bytes to write, 1 to 8.
+     */
+    void writeBytes(long value, int count) {
+        ensure(count);
+        for (int shift = 8 * (count - 1); shift >= 0; shift -= 8) {
+            bytes[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * <p>Writes an unsigned variable length integer.</p>
+     *
+     * @param value the value, treated as unsigned.
+     */
+    void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    /**
+     * <p>Writes a signed value as a zigzag encoded variable length integer,
+     * so that values of small magnitude take few bytes whatever their sign.</p>
+     *
+     * @param value the value.
+     */
+    void writeZigZag(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * <p>Appends the content of another sink.</p>
+     *
+     * @param other the sink to append.
+     */
+    void write(ByteSink other) {
+        ensure(other.length);
+        System.arraycopy(other.bytes, 0, bytes, length, other.length);
+        length += other.length;
+    }
+
+    /**
+     * <p>Returns the bytes written.</p>
+     *
+     * @return a new array of the bytes written.
+     */
+    byte[] toByteArray() {
+        byte[] result = new byte[length];
+        System.arraycopy(bytes, 0, result, 0, length);
+        return result;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.codec;
+
+import org.apache.commons.id.DecoderException;
+
+/**
+ * <p>Reads what a {@link ByteSink} wrote, from a region of a byte array.
+ * Reading past the region or a malformed variable length integer raises a
+ * <code>DecoderException</code>.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+final class ByteSource {
+
+    /** The encoded bytes. */
+    private final byte[] bytes;
+
+    /** The position of the next byte. */
+    private int position;
+
+    /** The end of the region. */
+    private final int limit;
+
+    /**
+     * <p>Constructs a source over a region.</p>
+     *
+     * @param bytes the encoded bytes.
+     * @param offset the start of the region.
+     * @param limit the end of the region.
+     * @throws DecoderException if the region is not within bytes.
+     */
+    ByteSource(byte[] bytes, int offset, int limit) throws DecoderException {
+        if (offset < 0 || offset > limit || limit > bytes.length) {
+            throw new DecoderException("Truncated input.");
+        }
+        this.bytes = bytes;
+        this.position = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * <p>Returns the position of the next byte.</p>
+     *
+     * @return the position.
+     */
+    int position() {
+        return position;
+    }
+
+    /**
+     * <p>Returns a source over the next bytes and skips them.</p>
+     *
+     * @param length the number of bytes.
+     * @return a source over them.
+     * @throws DecoderException if fewer bytes remain.
+     */
+    ByteSource slice(int length) throws DecoderException {
+        if (length < 0 || length > limit - position) {
+            throw new DecoderException("Truncated input.");
+        }
+        ByteSource slice = new ByteSource(bytes, position, position + length);
+        position += length;
+        return slice;
+    }
+
+    /**
+     * <p>Reads one unsigned byte.</p>
+     *
+     * @return the byte value, 0 to 255.
+     * @throws DecoderException if no byte remains.
+     */
+    int readByte() throws DecoderException {
+        if (position == limit) {
+            throw new DecoderException("Truncated input.");
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    /**
+     * <p>Reads a big endian int.</p>
+     *
+     * @return the value.
+     * @throws DecoderException if fewer than 4 bytes remain.
+     */
+    int readInt() throws DecoderException {
+        return (int) readBytes(4);
+    }
+
+    /**
+     * <p>Reads a value written most significant byte first.</p>
+     *
+     * @param count the number of bytes, 1 to 8.
+     * @return the value.
+     * @throws DecoderException if fewer bytes remain.
+     */
+    long readBytes(int count) throws DecoderException {
+        if (count > limit - position) {
+            throw new DecoderException("Truncated input.");
+        }
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 8) | (bytes[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * <p>Reads an unsigned variable length integer.</p>
+     *
+     * @return the value.
+     * @throws DecoderException if the input ends early or the value is longer than 64 bits.
+     */
+    long readVarLong() throws DecoderException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new DecoderException("Malformed variable length integer.");
+    }
+
+    /**
+     * <p>Reads an unsigned variable length integer that must fit an int.</p>
+     *
+     * @return the value.
+     * @throws DecoderException if the value is not a non-negative int.
+     */
+    int readVarInt() throws DecoderException {
+        long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new DecoderException("Value out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * <p>Reads a zigzag encoded variable length integer.</p>
+     *
+     * @return the signed value.
+     * @throws DecoderException if the input ends early.
+     */
+    long readZigZag() throws DecoderException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
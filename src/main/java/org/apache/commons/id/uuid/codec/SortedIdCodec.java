@@ -0,0 +1,606 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.codec;
+
+import java.nio.ByteBuffer;
+
+import org.apache.commons.id.DecoderException;
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>A block codec for sorted lists of identifiers: <code>long</code> ids
+ * such as those of {@link org.apache.commons.id.serial.LongGenerator}, and
+ * 128-bit UUIDs packed as consecutive <code>msb, lsb</code> pairs. Mostly
+ * consecutive lists shrink to a few bits per element.</p>
+ *
+ * <p>The list is cut into blocks of {@link #BLOCK_SIZE} elements. A skip
+ * table of fixed width entries holds the first element of every block and
+ * the position of its data, so any block can be located in constant time
+ * and decoded on its own. A block stores the differences between its
+ * consecutive elements with frame of reference coding: the smallest
+ * difference once, then every difference minus that smallest one, bit
+ * packed at the width of the largest into 64-bit words. Decoding a block is
+ * a tight shift-and-mask loop over those words.</p>
+ *
+ * <p>Any list round trips exactly; differences wrap around, so an unsorted
+ * list is merely stored at full width. {@link #indexOf(byte[], long)}
+ * requires <code>long</code> lists sorted in ascending signed order.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class SortedIdCodec {
+
+    /** The number of elements in a block. */
+    public static final int BLOCK_SIZE = 128;
+
+    /** Magic number identifying an encoded list of longs, "SL10". */
+    static final int MAGIC_LONGS = 0x534C3130;
+
+    /** Magic number identifying an encoded list of UUIDs, "SU10". */
+    static final int MAGIC_UUIDS = 0x53553130;
+
+    /** Bytes before the skip table: the magic number and the element count. */
+    private static final int HEADER_BYTES = 8;
+
+    /** Bytes in a skip entry of a list of longs: first element and data position. */
+    private static final int LONG_ENTRY_BYTES = 12;
+
+    /** Bytes in a skip entry of a list of UUIDs: first element and data position. */
+    private static final int UUID_ENTRY_BYTES = 20;
+
+    /** log2 of BLOCK_SIZE. */
+    private static final int BLOCK_SHIFT = 7;
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private SortedIdCodec() {
+    }
+
+    // longs
+    //-----------------------------------------------------------------------
+
+    /**
+     * <p>Encodes a list of longs.</p>
+     *
+     * @param values the list, ideally sorted.
+     * @return the encoded list.
+     */
+    public static byte[] encode(long[] values) {
+        int count = values.length;
+        int blocks = (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int dataStart = HEADER_BYTES + blocks * LONG_ENTRY_BYTES;
+        ByteSink table = new ByteSink(dataStart);
+        ByteSink data = new ByteSink(count);
+        table.writeInt(MAGIC_LONGS);
+        table.writeInt(count);
+        for (int b = 0; b < blocks; b++) {
+            int from = b << BLOCK_SHIFT;
+            int to = Math.min(count, from + BLOCK_SIZE);
+            table.writeBytes(values[from], 8);
+            table.writeInt(dataStart + data.length());
+            long min = -1L;
+            for (int i = from + 1; i < to; i++) {
+                long delta = values[i] - values[i - 1];
+                if ((delta ^ Long.MIN_VALUE) < (min ^ Long.MIN_VALUE)) {
+                    min = delta;
+                }
+            }
+            long bits = 0;
+            for (int i = from + 1; i < to; i++) {
+                bits |= values[i] - values[i - 1] - min;
+            }
+            int width = 64 - Long.numberOfLeadingZeros(bits);
+            data.writeVarLong(to - from > 1 ? min : 0);
+            data.writeByte(width);
+            writePacked(data, values, from, to, min, width);
+        }
+        table.write(data);
+        return table.toByteArray();
+    }
+
+    /**
+     * <p>Bit packs the differences of a block minus their minimum.</p>
+     *
+     * @param out the destination.
+     * @param values the list.
+     * @param from the first element of the block.
+     * @param to the index after the last element of the block.
+     * @param min the smallest difference.
+     * @param width the bits per difference.
+     */
+    private static void writePacked(ByteSink out, long[] values, int from, int to, long min, int width) {
+        if (width == 0) {
+            return;
+        }
+        long word = 0;
+        int used = 0;
+        for (int i = from + 1; i < to; i++) {
+            long value = values[i] - values[i - 1] - min;
+            word |= value << used;
+            used += width;
+            if (used >= 64) {
+                out.writeBytes(word, 8);
+                used -= 64;
+                word = used == 0 ? 0 : value >>> (width - used);
+            }
+        }
+        if (used > 0) {
+            out.writeBytes(word, 8);
+        }
+    }
+
+    /**
+     * <p>Decodes an encoded list of longs.</p>
+     *
+     * @param encoded the encoded list.
+     * @return the list.
+     * @throws DecoderException if the input is not an encoded list of longs or is corrupt.
+     */
+    public static long[] decode(byte[] encoded) throws DecoderException {
+        int count = size(encoded, MAGIC_LONGS);
+        long[] values = new long[count];
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        long[] words = new long[BLOCK_SIZE];
+        int blocks = (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        for (int b = 0; b < blocks; b++) {
+            decodeBlock(buffer, encoded, b, count, values, b << BLOCK_SHIFT, words);
+        }
+        return values;
+    }
+
+    /**
+     * <p>Decodes one block of an encoded list of longs.</p>
+     *
+     * @param encoded the encoded list.
+     * @param block the block index.
+     * @param out receives the block's elements.
+     * @param offset the index in out of the block's first element.
+     * @return the number of elements in the block.
+     * @throws DecoderException if the input is not an encoded list of longs,
+     *  is corrupt, or has no such block.
+     */
+    public static int decodeBlock(byte[] encoded, int block, long[] out, int offset) throws DecoderException {
+        int count = size(encoded, MAGIC_LONGS);
+        checkBlock(block, count);
+        return decodeBlock(ByteBuffer.wrap(encoded), encoded, block, count, out, offset, new long[BLOCK_SIZE]);
+    }
+
+    /**
+     * <p>Decodes one block of an encoded list of longs.</p>
+     *
+     * @param buffer a buffer wrapping encoded.
+     * @param encoded the encoded list.
+     * @param block the block index.
+     * @param count the number of elements in the list.
+     * @param out receives the block's elements.
+     * @param offset the index in out of the block's first element.
+     * @param words scratch space for the packed words.
+     * @return the number of elements in the block.
+     * @throws DecoderException if the block is corrupt.
+     */
+    private static int decodeBlock(ByteBuffer buffer, byte[] encoded, int block, int count,
+            long[] out, int offset, long[] words) throws DecoderException {
+        int entry = HEADER_BYTES + block * LONG_ENTRY_BYTES;
+        int size = Math.min(BLOCK_SIZE, count - (block << BLOCK_SHIFT));
+        long value = buffer.getLong(entry);
+        ByteSource in = new ByteSource(encoded, buffer.getInt(entry + 8), encoded.length);
+        long min = in.readVarLong();
+        int width = readWidth(in, 64);
+        readWords(buffer, in, words, 0, size - 1, width);
+        out[offset] = value;
+        if (width == 0) {
+            for (int i = 1; i < size; i++) {
+                value += min;
+                out[offset + i] = value;
+            }
+            return size;
+        }
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        int bit = 0;
+        for (int i = 1; i < size; i++, bit += width) {
+            int word = bit >>> 6;
+            int shift = bit & 63;
+            long packed = words[word] >>> shift;
+            if (shift + width > 64) {
+                packed |= words[word + 1] << (64 - shift);
+            }
+            value += min + (packed & mask);
+            out[offset + i] = value;
+        }
+        return size;
+    }
+
+    /**
+     * <p>Returns one element of an encoded list of longs, decoding only the
+     * start of its block.</p>
+     *
+     * @param encoded the encoded list.
+     * @param index the element index.
+     * @return the element.
+     * @throws DecoderException if the input is not an encoded list of longs or is corrupt.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public static long get(byte[] encoded, int index) throws DecoderException {
+        int count = size(encoded, MAGIC_LONGS);
+        checkIndex(index, count);
+        long[] block = new long[BLOCK_SIZE];
+        decodeBlock(ByteBuffer.wrap(encoded), encoded, index >>> BLOCK_SHIFT, count, block, 0, new long[BLOCK_SIZE]);
+        return block[index & (BLOCK_SIZE - 1)];
+    }
+
+    /**
+     * <p>Finds a value in an encoded list of longs sorted in ascending signed
+     * order. The skip table is searched for the one block that can hold the
+     * value, and only that block is decoded.</p>
+     *
+     * @param encoded the encoded, sorted list.
+     * @param value the value to look for.
+     * @return the index of an element equal to value, or -1.
+     * @throws DecoderException if the input is not an encoded list of longs or is corrupt.
+     */
+    public static int indexOf(byte[] encoded, long value) throws DecoderException {
+        int count = size(encoded, MAGIC_LONGS);
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        int lo = 0;
+        int hi = (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        // find the last block whose first element is at most value
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buffer.getLong(HEADER_BYTES + mid * LONG_ENTRY_BYTES) <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == 0) {
+            return -1;
+        }
+        int block = lo - 1;
+        long[] values = new long[BLOCK_SIZE];
+        int size = decodeBlock(buffer, encoded, block, count, values, 0, new long[BLOCK_SIZE]);
+        int first = 0;
+        int last = size - 1;
+        while (first <= last) {
+            int mid = (first + last) >>> 1;
+            if (values[mid] < value) {
+                first = mid + 1;
+            } else if (values[mid] > value) {
+                last = mid - 1;
+            } else {
+                return (block << BLOCK_SHIFT) + mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>Returns the number of elements of an encoded list of longs.</p>
+     *
+     * @param encoded the encoded list.
+     * @return the number of elements.
+     * @throws DecoderException if the input is not an encoded list of longs.
+     */
+    public static int size(byte[] encoded) throws DecoderException {
+        return size(encoded, MAGIC_LONGS);
+    }
+
+    // UUIDs
+    //-----------------------------------------------------------------------
+
+    /**
+     * <p>Encodes a list of UUIDs. Differences are 128-bit, and are packed as a
+     * stream of their low halves followed by a stream of the bits of their
+     * high halves, when any are needed.</p>
+     *
+     * @param packed the UUIDs as consecutive <code>msb, lsb</code> pairs,
+     *  ideally in the unsigned order of
+     *  {@link UUID#compare(long, long, long, long)}.
+     * @return the encoded list.
+     */
+    public static byte[] encodeUUIDs(long[] packed) {
+        int count = packed.length >>> 1;
+        int blocks = (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int dataStart = HEADER_BYTES + blocks * UUID_ENTRY_BYTES;
+        ByteSink table = new ByteSink(dataStart);
+        ByteSink data = new ByteSink(2 * count);
+        long[] high = new long[BLOCK_SIZE];
+        long[] low = new long[BLOCK_SIZE];
+        table.writeInt(MAGIC_UUIDS);
+        table.writeInt(count);
+        for (int b = 0; b < blocks; b++) {
+            int from = b << BLOCK_SHIFT;
+            int to = Math.min(count, from + BLOCK_SIZE);
+            table.writeBytes(packed[2 * from], 8);
+            table.writeBytes(packed[2 * from + 1], 8);
+            table.writeInt(dataStart + data.length());
+            int n = to - from - 1;
+            long minHigh = n > 0 ? -1L : 0L;
+            long minLow = n > 0 ? -1L : 0L;
+            for (int i = 0; i < n; i++) {
+                int p = 2 * (from + i);
+                low[i] = packed[p + 3] - packed[p + 1];
+                high[i] = packed[p + 2] - packed[p] - below(packed[p + 3], packed[p + 1]);
+                if (UUID.compare(high[i], low[i], minHigh, minLow) < 0) {
+                    minHigh = high[i];
+                    minLow = low[i];
+                }
+            }
+            long highBits = 0;
+            long lowBits = 0;
+            for (int i = 0; i < n; i++) {
+                long l = low[i] - minLow;
+                high[i] = high[i] - minHigh - below(low[i], minLow);
+                low[i] = l;
+                highBits |= high[i];
+                lowBits |= l;
+            }
+            int lowWidth = highBits != 0 ? 64 : 64 - Long.numberOfLeadingZeros(lowBits);
+            int highWidth = 64 - Long.numberOfLeadingZeros(highBits);
+            data.writeVarLong(minHigh);
+            data.writeVarLong(minLow);
+            data.writeByte(lowWidth);
+            data.writeByte(highWidth);
+            writeStream(data, low, n, lowWidth);
+            writeStream(data, high, n, highWidth);
+        }
+        table.write(data);
+        return table.toByteArray();
+    }
+
+    /**
+     * <p>Bit packs values into 64-bit words.</p>
+     *
+     * @param out the destination.
+     * @param values the values.
+     * @param n the number of values.
+     * @param width the bits per value.
+     */
+    private static void writeStream(ByteSink out, long[] values, int n, int width) {
+        if (width == 0) {
+            return;
+        }
+        long word = 0;
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            word |= values[i] << used;
+            used += width;
+            if (used >= 64) {
+                out.writeBytes(word, 8);
+                used -= 64;
+                word = used == 0 ? 0 : values[i] >>> (width - used);
+            }
+        }
+        if (used > 0) {
+            out.writeBytes(word, 8);
+        }
+    }
+
+    /**
+     * <p>Decodes an encoded list of UUIDs.</p>
+     *
+     * @param encoded the encoded list.
+     * @return the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     * @throws DecoderException if the input is not an encoded list of UUIDs or is corrupt.
+     */
+    public static long[] decodeUUIDs(byte[] encoded) throws DecoderException {
+        int count = size(encoded, MAGIC_UUIDS);
+        long[] packed = new long[2 * count];
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        long[] lowWords = new long[BLOCK_SIZE];
+        long[] highWords = new long[BLOCK_SIZE];
+        int blocks = (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        for (int b = 0; b < blocks; b++) {
+            decodeUUIDBlock(buffer, encoded, b, count, packed, b << BLOCK_SHIFT, lowWords, highWords);
+        }
+        return packed;
+    }
+
+    /**
+     * <p>Returns one UUID of an encoded list of UUIDs, decoding only its block.</p>
+     *
+     * @param encoded the encoded list.
+     * @param index the element index.
+     * @return the UUID.
+     * @throws DecoderException if the input is not an encoded list of UUIDs or is corrupt.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public static UUID getUUID(byte[] encoded, int index) throws DecoderException {
+        int count = size(encoded, MAGIC_UUIDS);
+        checkIndex(index, count);
+        long[] block = new long[2 * BLOCK_SIZE];
+        decodeUUIDBlock(ByteBuffer.wrap(encoded), encoded, index >>> BLOCK_SHIFT, count, block, 0,
+                new long[BLOCK_SIZE], new long[BLOCK_SIZE]);
+        int i = index & (BLOCK_SIZE - 1);
+        return new UUID(block[2 * i], block[2 * i + 1]);
+    }
+
+    /**
+     * <p>Returns the number of UUIDs of an encoded list of UUIDs.</p>
+     *
+     * @param encoded the encoded list.
+     * @return the number of UUIDs.
+     * @throws DecoderException if the input is not an encoded list of UUIDs.
+     */
+    public static int sizeUUIDs(byte[] encoded) throws DecoderException {
+        return size(encoded, MAGIC_UUIDS);
+    }
+
+    /**
+     * <p>Decodes one block of an encoded list of UUIDs.</p>
+     *
+     * @param buffer a buffer wrapping encoded.
+     * @param encoded the encoded list.
+     * @param block the block index.
+     * @param count the number of UUIDs in the list.
+     * @param out receives the block's UUIDs, packed.
+     * @param offset the record index in out of the block's first UUID.
+     * @param lowWords scratch space for the packed low halves.
+     * @param highWords scratch space for the packed high halves.
+     * @throws DecoderException if the block is corrupt.
+     */
+    private static void decodeUUIDBlock(ByteBuffer buffer, byte[] encoded, int block, int count,
+            long[] out, int offset, long[] lowWords, long[] highWords) throws DecoderException {
+        int entry = HEADER_BYTES + block * UUID_ENTRY_BYTES;
+        int n = Math.min(BLOCK_SIZE, count - (block << BLOCK_SHIFT)) - 1;
+        long most = buffer.getLong(entry);
+        long least = buffer.getLong(entry + 8);
+        ByteSource in = new ByteSource(encoded, buffer.getInt(entry + 16), encoded.length);
+        long minHigh = in.readVarLong();
+        long minLow = in.readVarLong();
+        int lowWidth = readWidth(in, 64);
+        int highWidth = readWidth(in, 64);
+        readWords(buffer, in, lowWords, 0, n, lowWidth);
+        readWords(buffer, in, highWords, 0, n, highWidth);
+        int p = 2 * offset;
+        out[p] = most;
+        out[p + 1] = least;
+        long lowMask = lowWidth == 64 ? -1L : (1L << lowWidth) - 1;
+        long highMask = highWidth == 64 ? -1L : (1L << highWidth) - 1;
+        for (int i = 0, lowBit = 0, highBit = 0; i < n; i++, lowBit += lowWidth, highBit += highWidth) {
+            long low = lowWidth == 0 ? 0 : unpack(lowWords, lowBit, lowWidth) & lowMask;
+            long high = highWidth == 0 ? 0 : unpack(highWords, highBit, highWidth) & highMask;
+            // delta = (high, low) + (minHigh, minLow); value += delta
+            long deltaLow = low + minLow;
+            long deltaHigh = high + minHigh + below(deltaLow, low);
+            long sum = least + deltaLow;
+            most += deltaHigh + below(sum, least);
+            least = sum;
+            p += 2;
+            out[p] = most;
+            out[p + 1] = least;
+        }
+    }
+
+    // shared
+    //-----------------------------------------------------------------------
+
+    /**
+     * <p>Extracts the bits of one packed value, unmasked.</p>
+     *
+     * @param words the packed words.
+     * @param bit the position of the value's lowest bit.
+     * @param width the bits per value.
+     * @return the value in the low bits, garbage above.
+     */
+    private static long unpack(long[] words, int bit, int width) {
+        int word = bit >>> 6;
+        int shift = bit & 63;
+        long packed = words[word] >>> shift;
+        if (shift + width > 64) {
+            packed |= words[word + 1] << (64 - shift);
+        }
+        return packed;
+    }
+
+    /**
+     * <p>Returns 1 if a is below b in unsigned order, the borrow of
+     * <code>a - b</code> and the carry of a sum that wrapped to a.</p>
+     *
+     * @param a the first value.
+     * @param b the second value.
+     * @return 1 or 0.
+     */
+    private static long below(long a, long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE) ? 1 : 0;
+    }
+
+    /**
+     * <p>Reads the packed words of a stream and skips past them.</p>
+     *
+     * @param buffer a buffer wrapping the encoded bytes.
+     * @param in the source, positioned at the words.
+     * @param words receives the words.
+     * @param offset the index in words of the first word.
+     * @param n the number of packed values.
+     * @param width the bits per value.
+     * @throws DecoderException if the input ends early.
+     */
+    private static void readWords(ByteBuffer buffer, ByteSource in, long[] words, int offset, int n, int width)
+            throws DecoderException {
+        int count = (n * width + 63) >>> 6;
+        int position = in.slice(8 * count).position();
+        for (int i = 0; i < count; i++) {
+            words[offset + i] = buffer.getLong(position + 8 * i);
+        }
+    }
+
+    /**
+     * <p>Reads a bit width.</p>
+     *
+     * @param in the source.
+     * @param max the largest valid width.
+     * @return the width.
+     * @throws DecoderException if the width is out of range.
+     */
+    private static int readWidth(ByteSource in, int max) throws DecoderException {
+        int width = in.readByte();
+        if (width > max) {
+            throw new DecoderException("Corrupt bit width " + width);
+        }
+        return width;
+    }
+
+    /**
+     * <p>Checks the header and returns the element count.</p>
+     *
+     * @param encoded the encoded list.
+     * @param magic the expected magic number.
+     * @return the number of elements.
+     * @throws DecoderException if the header is wrong or the skip table is truncated.
+     */
+    private static int size(byte[] encoded, int magic) throws DecoderException {
+        ByteSource in = new ByteSource(encoded, 0, encoded.length);
+        if (in.readInt() != magic) {
+            throw new DecoderException("Not an encoded " + (magic == MAGIC_LONGS ? "long" : "UUID") + " list.");
+        }
+        int count = in.readInt();
+        long blocks = ((long) count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int entryBytes = magic == MAGIC_LONGS ? LONG_ENTRY_BYTES : UUID_ENTRY_BYTES;
+        if (count < 0 || HEADER_BYTES + blocks * entryBytes > encoded.length) {
+            throw new DecoderException("Truncated input.");
+        }
+        return count;
+    }
+
+    /**
+     * <p>Checks a block index.</p>
+     *
+     * @param block the block index.
+     * @param count the number of elements.
+     * @throws DecoderException if there is no such block.
+     */
+    private static void checkBlock(int block, int count) throws DecoderException {
+        if (block < 0 || block >= (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT) {
+            throw new DecoderException("No block " + block);
+        }
+    }
+
+    /**
+     * <p>Checks an element index.</p>
+     *
+     * @param index the element index.
+     * @param count the number of elements.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, count)</code>.
+     */
+    private static void checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + count + ")");
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.codec;
+
+import java.util.Arrays;
+
+import org.apache.commons.id.DecoderException;
+import org.apache.commons.id.HashUtils;
+
+/**
+ * <p>A lossless columnar codec for columns of mostly version 1 (time-based)
+ * UUIDs, such as those of {@link org.apache.commons.id.uuid.VersionOneGenerator}.
+ * A fleet of generators shares a handful of node identifiers and clock
+ * sequences, and their timestamps grow almost monotonically, so splitting
+ * the UUIDs into those fields and encoding each field as its own column
+ * leaves little more than the timestamp increments to store.</p>
+ *
+ * <p>For every time-based UUID of the IETF variant:</p>
+ * <ul>
+ * <li>the 60-bit timestamp is stored as the zigzag variable length
+ * difference from the previous one, a byte or two for sorted or nearly
+ * sorted input;</li>
+ * <li>the 48-bit node is replaced by its code in a dictionary of the
+ * distinct nodes, usually one byte;</li>
+ * <li>the 14-bit clock sequence is stored as the zigzag difference from
+ * the last clock sequence of the same node, usually one zero byte.</li>
+ * </ul>
+ * <p>The version and variant bits are implied. Any other UUID is stored
+ * verbatim in an exception list, so every input round trips exactly.</p>
+ *
+ * <p>UUIDs are passed as a packed <code>long[]</code> of consecutive
+ * <code>msb, lsb</code> pairs.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class VersionOneColumnCodec {
+
+    /** Magic number identifying an encoded column, "UV10". */
+    static final int MAGIC = 0x55563130;
+
+    /** Mask of the 48-bit node field. */
+    private static final long NODE_MASK = 0xFFFFFFFFFFFFL;
+
+    /** Mask of the 14-bit clock sequence field. */
+    private static final int CLOCK_SEQ_MASK = 0x3FFF;
+
+    /** Bytes in a node. */
+    private static final int NODE_BYTES = 6;
+
+    /** The fewest bytes a row can take: a timestamp, a node code and a clock sequence. */
+    private static final int MIN_ROW_BYTES = 3;
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private VersionOneColumnCodec() {
+    }
+
+    /**
+     * <p>Encodes a column of UUIDs.</p>
+     *
+     * @param packed the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     * @return the encoded column.
+     */
+    public static byte[] encode(long[] packed) {
+        int count = packed.length >>> 1;
+        ByteSink nodeTable = new ByteSink(64);
+        ByteSink exceptions = new ByteSink(64);
+        ByteSink timestamps = new ByteSink(2 * count);
+        ByteSink nodeCodes = new ByteSink(count);
+        ByteSink clockSeqs = new ByteSink(count);
+        NodeCodes codes = new NodeCodes();
+        int[] lastClockSeq = new int[16];
+        int exceptionCount = 0;
+        int nextRow = 0;
+        long lastTimestamp = 0;
+        for (int row = 0; row < count; row++) {
+            long msb = packed[2 * row];
+            long lsb = packed[2 * row + 1];
+            if (!isTimeBased(msb, lsb)) {
+                exceptions.writeVarLong(row - nextRow);
+                exceptions.writeBytes(msb, 8);
+                exceptions.writeBytes(lsb, 8);
+                exceptionCount++;
+                nextRow = row + 1;
+                continue;
+            }
+            long timestamp = timestamp(msb);
+            timestamps.writeZigZag(timestamp - lastTimestamp);
+            lastTimestamp = timestamp;
+            long node = lsb & NODE_MASK;
+            int code = codes.get(node);
+            if (code < 0) {
+                code = codes.add(node);
+                nodeTable.writeBytes(node, NODE_BYTES);
+                if (code == lastClockSeq.length) {
+                    int[] grown = new int[2 * lastClockSeq.length];
+                    System.arraycopy(lastClockSeq, 0, grown, 0, lastClockSeq.length);
+                    lastClockSeq = grown;
+                }
+            }
+            nodeCodes.writeVarLong(code);
+            int clockSeq = (int) (lsb >>> 48) & CLOCK_SEQ_MASK;
+            clockSeqs.writeZigZag(clockSeq - lastClockSeq[code]);
+            lastClockSeq[code] = clockSeq;
+        }
+        ByteSink out = new ByteSink(32 + nodeTable.length() + exceptions.length() + timestamps.length()
+                + nodeCodes.length() + clockSeqs.length());
+        out.writeInt(MAGIC);
+        out.writeVarLong(count);
+        out.writeVarLong(codes.size());
+        out.writeVarLong(exceptionCount);
+        out.writeVarLong(exceptions.length());
+        out.writeVarLong(timestamps.length());
+        out.writeVarLong(nodeCodes.length());
+        out.writeVarLong(clockSeqs.length());
+        out.write(nodeTable);
+        out.write(exceptions);
+        out.write(timestamps);
+        out.write(nodeCodes);
+        out.write(clockSeqs);
+        return out.toByteArray();
+    }
+
+    /**
+     * <p>Decodes a column encoded by {@link #encode(long[])}.</p>
+     *
+     * @param encoded the encoded column.
+     * @return the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     * @throws DecoderException if the input is not an encoded column or is corrupt.
+     */
+    public static long[] decode(byte[] encoded) throws DecoderException {
+        ByteSource in = new ByteSource(encoded, 0, encoded.length);
+        if (in.readInt() != MAGIC) {
+            throw new DecoderException("Not a version 1 UUID column.");
+        }
+        int count = in.readVarInt();
+        int nodeCount = in.readVarInt();
+        int exceptionCount = in.readVarInt();
+        int exceptionBytes = in.readVarInt();
+        int timestampBytes = in.readVarInt();
+        int nodeCodeBytes = in.readVarInt();
+        int clockSeqBytes = in.readVarInt();
+        // bound the counts by the bytes left before allocating anything for them
+        int remaining = encoded.length - in.position();
+        if (count > remaining / MIN_ROW_BYTES || nodeCount > remaining / NODE_BYTES) {
+            throw new DecoderException("Corrupt version 1 UUID column.");
+        }
+        long[] nodes = new long[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = in.readBytes(NODE_BYTES);
+        }
+        ByteSource exceptions = in.slice(exceptionBytes);
+        ByteSource timestamps = in.slice(timestampBytes);
+        ByteSource nodeCodes = in.slice(nodeCodeBytes);
+        ByteSource clockSeqs = in.slice(clockSeqBytes);
+        int[] lastClockSeq = new int[nodeCount];
+        long[] packed = new long[2 * count];
+        int nextException = exceptionCount > 0 ? exceptions.readVarInt() : -1;
+        long lastTimestamp = 0;
+        for (int row = 0; row < count; row++) {
+            if (row == nextException) {
+                packed[2 * row] = exceptions.readBytes(8);
+                packed[2 * row + 1] = exceptions.readBytes(8);
+                nextException = --exceptionCount > 0 ? row + 1 + exceptions.readVarInt() : -1;
+                continue;
+            }
+            long timestamp = lastTimestamp + timestamps.readZigZag();
+            lastTimestamp = timestamp;
+            int code = nodeCodes.readVarInt();
+            if (code >= nodeCount) {
+                throw new DecoderException("Unknown node code " + code);
+            }
+            int clockSeq = (int) (lastClockSeq[code] + clockSeqs.readZigZag()) & CLOCK_SEQ_MASK;
+            lastClockSeq[code] = clockSeq;
+            packed[2 * row] = (timestamp << 32) | ((timestamp >>> 16) & 0xFFFF0000L)
+                    | 0x1000L | ((timestamp >>> 48) & 0x0FFFL);
+            packed[2 * row + 1] = ((long) (0x8000 | clockSeq) << 48) | nodes[code];
+        }
+        if (exceptionCount > 0) {
+            throw new DecoderException("Corrupt version 1 UUID column.");
+        }
+        return packed;
+    }
+
+    /**
+     * <p>Returns how many times smaller an encoded column is than the 16
+     * bytes per UUID it stands for.</p>
+     *
+     * @param encoded the encoded column.
+     * @return the uncompressed size divided by the encoded size.
+     * @throws DecoderException if the input is not an encoded column.
+     */
+    public static double compressionRatio(byte[] encoded) throws DecoderException {
+        ByteSource in = new ByteSource(encoded, 0, encoded.length);
+        if (in.readInt() != MAGIC) {
+            throw new DecoderException("Not a version 1 UUID column.");
+        }
+        return 16.0 * in.readVarInt() / encoded.length;
+    }
+
+    /**
+     * <p>Returns whether a UUID is a time-based UUID of the IETF variant.</p>
+     *
+     * @param msb the most significant 64 bits.
+     * @param lsb the least significant 64 bits.
+     * @return true if its fields can be split.
+     */
+    private static boolean isTimeBased(long msb, long lsb) {
+        return (msb & 0xF000L) == 0x1000L && (lsb >>> 62) == 2;
+    }
+
+    /**
+     * <p>Reassembles the 60-bit timestamp of a time-based UUID.</p>
+     *
+     * @param msb the most significant 64 bits.
+     * @return the timestamp.
+     */
+    private static long timestamp(long msb) {
+        return ((msb & 0x0FFFL) << 48) | (((msb >>> 16) & 0xFFFFL) << 32) | (msb >>> 32);
+    }
+
+    /**
+     * <p>The dictionary of nodes met while encoding: an open-addressing
+     * table with linear probing from a node to its code, the codes being
+     * assigned in order of first appearance.</p>
+     */
+    private static final class NodeCodes {
+
+        /** The nodes. */
+        private long[] nodes = new long[16];
+
+        /** The code of each slot, -1 when the slot is empty. */
+        private int[] codes = newCodes(16);
+
+        /** The number of nodes. */
+        private int size;
+
+        /**
+         * <p>Returns the number of nodes.</p>
+         *
+         * @return the number of codes assigned.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * <p>Returns the code of a node.</p>
+         *
+         * @param node the 48-bit node.
+         * @return the code, or -1 if the node has none yet.
+         */
+        int get(long node) {
+            return codes[slotOf(node)];
+        }
+
+        /**
+         * <p>Assigns the next code to a node that has none.</p>
+         *
+         * @param node the 48-bit node.
+         * @return the new code.
+         */
+        int add(long node) {
+            if (size >= codes.length - (codes.length >>> 2)) {
+                long[] oldNodes = nodes;
+                int[] oldCodes = codes;
+                nodes = new long[2 * oldNodes.length];
+                codes = newCodes(2 * oldCodes.length);
+                for (int i = 0; i < oldCodes.length; i++) {
+                    if (oldCodes[i] >= 0) {
+                        int slot = slotOf(oldNodes[i]);
+                        nodes[slot] = oldNodes[i];
+                        codes[slot] = oldCodes[i];
+                    }
+                }
+            }
+            int slot = slotOf(node);
+            nodes[slot] = node;
+            codes[slot] = size;
+            return size++;
+        }
+
+        /**
+         * <p>Returns the slot holding a node, or the empty slot ending its probe sequence.</p>
+         *
+         * @param node the 48-bit node.
+         * @return the slot.
+         */
+        private int slotOf(long node) {
+            int mask = codes.length - 1;
+            int slot = (int) HashUtils.mix64(node) & mask;
+            while (codes[slot] >= 0 && nodes[slot] != node) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * <p>Allocates an empty code table.</p>
+         *
+         * @param slots the number of slots.
+         * @return the table.
+         */
+        private static int[] newCodes(int slots) {
+            int[] codes = new int[slots];
+            Arrays.fill(codes, -1);
+            return codes;
+        }
+    }
+}
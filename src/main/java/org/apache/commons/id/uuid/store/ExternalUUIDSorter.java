@@ -0,0 +1,491 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Sorts files of binary UUID records that are too large for memory. A
+ * record file is a plain sequence of 16-byte big endian <code>msb, lsb</code>
+ * records with no header. The output is in the unsigned order of
+ * {@link org.apache.commons.id.uuid.UUID#compare(long, long, long, long)};
+ * duplicates are kept.</p>
+ *
+ * <p>The input is read sequentially in runs of a fixed number of records.
+ * Each run is sorted in memory by one of a pool of threads and spilled to a
+ * temporary file through a direct buffer, while the next run is read. The
+ * runs are then merged with a loser tree, which costs one comparison per
+ * tree level for every record, into the memory-mapped output file.</p>
+ *
+ * <p>Run sorting holds <code>threads + 1</code> runs in memory at once, so the
+ * heap needed is about <code>(threads + 1) * runRecords * 16</code> bytes. The
+ * temporary files need as much disk space as the input. A sorter may be
+ * used for any number of sorts, one at a time per thread.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class ExternalUUIDSorter {
+
+    /** The default number of records in a run, 64 MiB of records. */
+    public static final int DEFAULT_RUN_RECORDS = 1 << 22;
+
+    /** The size of the direct buffers used to read the input and spill runs. */
+    private static final int IO_BUFFER_BYTES = 1 << 22;
+
+    /** The smallest read ahead buffer of a run while merging. */
+    private static final int MIN_MERGE_BUFFER_BYTES = 1 << 16;
+
+    /** The size of each memory-mapped window of the output. */
+    private static final int OUTPUT_WINDOW_BYTES = 1 << 28;
+
+    /** The largest run, limited by the length of a long[]. */
+    private static final int MAX_RUN_RECORDS = (Integer.MAX_VALUE - 8) >>> 1;
+
+    /** The number of records in a run. */
+    private final int runRecords;
+
+    /** The number of threads sorting runs. */
+    private final int threads;
+
+    /** The directory for the run files, null for the default temporary directory. */
+    private final File tempDirectory;
+
+    /**
+     * <p>Constructs a sorter with runs of {@link #DEFAULT_RUN_RECORDS} records,
+     * one sorting thread per processor and the default temporary directory.</p>
+     */
+    public ExternalUUIDSorter() {
+        this(DEFAULT_RUN_RECORDS, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * <p>Constructs a sorter.</p>
+     *
+     * @param runRecords the number of records sorted in memory at a time per thread.
+     * @param threads the number of threads sorting runs.
+     * @param tempDirectory the directory for the run files, or null for the
+     *  default temporary directory.
+     * @throws IllegalArgumentException if runRecords or threads is not positive,
+     *  or runRecords is too large for an array.
+     */
+    public ExternalUUIDSorter(int runRecords, int threads, File tempDirectory) {
+        super();
+        if (runRecords <= 0 || runRecords > MAX_RUN_RECORDS) {
+            throw new IllegalArgumentException("The run size must be from 1 to " + MAX_RUN_RECORDS);
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("At least one thread is needed.");
+        }
+        this.runRecords = runRecords;
+        this.threads = threads;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * <p>Sorts a record file into another file. The output file is created
+     * or replaced, and may not be the input file.</p>
+     *
+     * @param input the record file to sort.
+     * @param output the file receiving the sorted records.
+     * @return the number of records sorted.
+     * @throws IOException if a file cannot be read or written, or the input
+     *  length is not a multiple of 16.
+     */
+    public long sort(File input, File output) throws IOException {
+        if (input.getCanonicalFile().equals(output.getCanonicalFile())) {
+            throw new IOException("Cannot sort " + input + " onto itself.");
+        }
+        long length = input.length();
+        if (length % RecordStorage.RECORD_BYTES != 0) {
+            throw new IOException(input + " is not a whole number of 16 byte records.");
+        }
+        long records = length / RecordStorage.RECORD_BYTES;
+        List runs = new ArrayList();
+        try {
+            sortRuns(input, records, runs);
+            merge(runs, output, records);
+        } finally {
+            for (int i = 0; i < runs.size(); i++) {
+                ((File) runs.get(i)).delete();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * <p>Reads the input in runs and has the pool sort and spill them.</p>
+     *
+     * @param input the record file to sort.
+     * @param records the number of records in the input.
+     * @param runs the list receiving the run files, in input order.
+     * @throws IOException if reading or spilling fails.
+     */
+    private void sortRuns(File input, long records, List runs) throws IOException {
+        int runLength = (int) Math.min(runRecords, Math.max(1, records));
+        int buffers = (int) Math.min(threads + 1, (records + runLength - 1) / runLength);
+        final BlockingQueue free = new ArrayBlockingQueue(Math.max(1, buffers));
+        for (int i = 0; i < buffers; i++) {
+            free.add(new RunBuffer(runLength));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, buffers)));
+        List futures = new ArrayList();
+        RandomAccessFile in = new RandomAccessFile(input, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long remaining = records;
+            while (remaining > 0) {
+                final RunBuffer buffer = (RunBuffer) free.take();
+                final int count = (int) Math.min(runLength, remaining);
+                buffer.read(channel, count);
+                remaining -= count;
+                final File run = File.createTempFile("uuid-run", ".tmp", tempDirectory);
+                runs.add(run);
+                futures.add(pool.submit(new Callable() {
+                    public Object call() throws IOException {
+                        try {
+                            PackedUUIDs.sort(buffer.records, 0, count);
+                            buffer.write(run, count);
+                        } finally {
+                            free.add(buffer);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                ((Future) futures.get(i)).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException("Interrupted while sorting runs.").initCause(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw (IOException) new IOException("Sorting a run failed.").initCause(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            in.close();
+        }
+    }
+
+    /**
+     * <p>Merges sorted run files into the output with a loser tree.</p>
+     *
+     * @param runs the run files.
+     * @param output the file receiving the merged records.
+     * @param records the total number of records.
+     * @throws IOException if reading or writing fails.
+     */
+    private void merge(List runs, File output, long records) throws IOException {
+        int k = runs.size();
+        long budget = (long) (threads + 1) * runRecords * RecordStorage.RECORD_BYTES;
+        int bufferBytes = (int) Math.max(MIN_MERGE_BUFFER_BYTES, Math.min(IO_BUFFER_BYTES, budget / Math.max(1, k)));
+        bufferBytes -= bufferBytes % RecordStorage.RECORD_BYTES;
+        RunReader[] readers = new RunReader[k];
+        RandomAccessFile out = new RandomAccessFile(output, "rw");
+        try {
+            for (int i = 0; i < k; i++) {
+                readers[i] = new RunReader((File) runs.get(i), bufferBytes);
+            }
+            out.setLength(0);
+            out.setLength(records * RecordStorage.RECORD_BYTES);
+            FileChannel channel = out.getChannel();
+            LoserTree tree = new LoserTree(readers);
+            MappedByteBuffer window = null;
+            long position = 0;
+            for (long written = 0; written < records; written++) {
+                if (window == null || !window.hasRemaining()) {
+                    if (window != null) {
+                        window.force();
+                    }
+                    long size = Math.min(OUTPUT_WINDOW_BYTES, records * RecordStorage.RECORD_BYTES - position);
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+                    window.order(ByteOrder.BIG_ENDIAN);
+                    position += size;
+                }
+                RunReader winner = readers[tree.winner()];
+                window.putLong(winner.mostSignificant ^ Long.MIN_VALUE);
+                window.putLong(winner.leastSignificant ^ Long.MIN_VALUE);
+                winner.advance();
+                tree.replay();
+            }
+            if (window != null) {
+                window.force();
+            }
+        } finally {
+            out.close();
+            for (int i = 0; i < k; i++) {
+                if (readers[i] != null) {
+                    readers[i].close();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>A reusable run: the packed records and a direct buffer for moving
+     * them to and from files.</p>
+     */
+    private static final class RunBuffer {
+
+        /** The packed records of the run. */
+        final long[] records;
+
+        /** The I/O buffer. */
+        private final ByteBuffer io = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.BIG_ENDIAN);
+
+        /**
+         * <p>Constructs a run buffer.</p>
+         *
+         * @param capacity the largest number of records in a run.
+         */
+        RunBuffer(int capacity) {
+            records = new long[2 * capacity];
+        }
+
+        /**
+         * <p>Reads the next records of a channel.</p>
+         *
+         * @param channel the input, positioned at the run.
+         * @param count the number of records to read.
+         * @throws IOException if reading fails or the input ends early.
+         */
+        void read(FileChannel channel, int count) throws IOException {
+            int longs = 2 * count;
+            int done = 0;
+            while (done < longs) {
+                io.clear();
+                io.limit((int) Math.min(io.capacity(), 8L * (longs - done)));
+                while (io.hasRemaining()) {
+                    if (channel.read(io) < 0) {
+                        throw new IOException("Input ended before the expected number of records.");
+                    }
+                }
+                io.flip();
+                int n = io.remaining() >>> 3;
+                io.asLongBuffer().get(records, done, n);
+                done += n;
+            }
+        }
+
+        /**
+         * <p>Writes the first records to a new run file.</p>
+         *
+         * @param file the run file.
+         * @param count the number of records to write.
+         * @throws IOException if writing fails.
+         */
+        void write(File file, int count) throws IOException {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = out.getChannel();
+                int longs = 2 * count;
+                int done = 0;
+                while (done < longs) {
+                    io.clear();
+                    int n = Math.min(io.capacity() >>> 3, longs - done);
+                    io.asLongBuffer().put(records, done, n);
+                    io.limit(n << 3);
+                    while (io.hasRemaining()) {
+                        channel.write(io);
+                    }
+                    done += n;
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * <p>Reads a sorted run file one record at a time. The current record is
+     * held with its sign bits flipped so that signed comparisons give the
+     * unsigned order.</p>
+     */
+    private static final class RunReader {
+
+        /** The run file. */
+        private final RandomAccessFile file;
+
+        /** The run file's channel. */
+        private final FileChannel channel;
+
+        /** The read ahead buffer. */
+        private final ByteBuffer buffer;
+
+        /** Whether the run has no current record. */
+        boolean exhausted;
+
+        /** The flipped most significant bits of the current record. */
+        long mostSignificant;
+
+        /** The flipped least significant bits of the current record. */
+        long leastSignificant;
+
+        /**
+         * <p>Opens a run and reads its first record.</p>
+         *
+         * @param run the run file.
+         * @param bufferBytes the size of the read ahead buffer, a multiple of 16.
+         * @throws IOException if the run cannot be read.
+         */
+        RunReader(File run, int bufferBytes) throws IOException {
+            file = new RandomAccessFile(run, "r");
+            channel = file.getChannel();
+            buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.BIG_ENDIAN);
+            buffer.flip();
+            advance();
+        }
+
+        /**
+         * <p>Moves to the next record, or marks the run exhausted.</p>
+         *
+         * @throws IOException if the run cannot be read.
+         */
+        void advance() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // fill the buffer, or reach the end of the run
+                }
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    exhausted = true;
+                    return;
+                }
+            }
+            mostSignificant = buffer.getLong() ^ Long.MIN_VALUE;
+            leastSignificant = buffer.getLong() ^ Long.MIN_VALUE;
+        }
+
+        /**
+         * <p>Closes the run file.</p>
+         *
+         * @throws IOException if closing fails.
+         */
+        void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * <p>A tournament tree of losers over the current records of the runs.
+     * Node 0 holds the overall winner, the smallest record; every other
+     * node holds the loser of the match played there. After the winner's
+     * run advances only the matches on its path to the root are replayed.</p>
+     */
+    private static final class LoserTree {
+
+        /** The runs, the leaves of the tree. */
+        private final RunReader[] runs;
+
+        /** The winner at node 0 and the losers at the internal nodes. */
+        private final int[] nodes;
+
+        /**
+         * <p>Builds the tree by playing every run in from the leaves.</p>
+         *
+         * @param runs the runs, each positioned at its first record.
+         */
+        LoserTree(RunReader[] runs) {
+            this.runs = runs;
+            int k = runs.length;
+            nodes = new int[Math.max(1, k)];
+            // index k stands for a virtual run smaller than any record
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = k;
+            }
+            for (int i = k - 1; i >= 0; i--) {
+                play(i);
+            }
+        }
+
+        /**
+         * <p>Returns the run holding the smallest current record.</p>
+         *
+         * @return the index of the winning run.
+         */
+        int winner() {
+            return nodes[0];
+        }
+
+        /**
+         * <p>Replays the winner's path after its run advanced.</p>
+         */
+        void replay() {
+            play(nodes[0]);
+        }
+
+        /**
+         * <p>Plays a run up from its leaf to the root.</p>
+         *
+         * @param run the run.
+         */
+        private void play(int run) {
+            int k = runs.length;
+            int winner = run;
+            for (int node = (run + k) >>> 1; node > 0; node >>>= 1) {
+                if (loses(winner, nodes[node])) {
+                    int loser = winner;
+                    winner = nodes[node];
+                    nodes[node] = loser;
+                }
+            }
+            nodes[0] = winner;
+        }
+
+        /**
+         * <p>Returns whether one run's current record is greater than
+         * another's. Exhausted runs lose to every run; the virtual run k wins
+         * against every run.</p>
+         *
+         * @param a the first run.
+         * @param b the second run.
+         * @return true if run a loses against run b.
+         */
+        private boolean loses(int a, int b) {
+            int k = runs.length;
+            if (a == k || b == k) {
+                return b == k;
+            }
+            RunReader x = runs[a];
+            RunReader y = runs[b];
+            if (x.exhausted || y.exhausted) {
+                return x.exhausted && !y.exhausted;
+            }
+            return PackedUUIDs.compare(x.mostSignificant, x.leastSignificant,
+                    y.mostSignificant, y.leastSignificant) > 0;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>A read-only set of UUIDs in an index file that is memory-mapped rather
+ * than loaded, so opening it costs the same for a thousand UUIDs as for
+ * billions, and lookups allocate nothing.</p>
+ *
+ * <p>The file holds the usual 16-byte header, a fanout table and the
+ * distinct UUIDs as sorted 16-byte big endian records. Fanout entry
+ * <code>b</code> is the index of the first record whose top 16 bits are at
+ * least <code>b</code>, so the table narrows a lookup to one of 65536
+ * buckets. Within a bucket the position of the UUID is estimated by
+ * interpolating its remaining 48 most significant bits between the bounds
+ * of the bucket. For close to uniform UUIDs, such as random or name-based
+ * ones, this takes an expected O(log log n) probes. Interpolation falls
+ * back to bisection if the keys prove skewed, and the last few records are
+ * scanned.</p>
+ *
+ * <p>Index files are written by {@link #build(File, File)} from a file of
+ * sorted 16-byte records, such as the output of
+ * {@link ExternalUUIDSorter}. Instances are thread safe, including
+ * {@link #close()} against concurrent lookups.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class MappedUUIDIndex {
+
+    /** Magic number identifying an index file, "UUI0". */
+    static final int MAGIC = 0x55554930;
+
+    /** The number of top bits of the most significant half selecting a bucket. */
+    static final int FANOUT_BITS = 16;
+
+    /** The position of the fanout table in the file. */
+    private static final int FANOUT_OFFSET = RecordStorage.HEADER_BYTES;
+
+    /** The number of entries in the fanout table. */
+    private static final int FANOUT_ENTRIES = (1 << FANOUT_BITS) + 1;
+
+    /** The position of the first record, aligned to a record. */
+    static final int RECORDS_OFFSET = (FANOUT_OFFSET + 8 * FANOUT_ENTRIES + RecordStorage.RECORD_BYTES - 1)
+            & -RecordStorage.RECORD_BYTES;
+
+    /** The bits of the most significant half below the bucket bits. */
+    private static final long KEY_MASK = -1L >>> FANOUT_BITS;
+
+    /** Ranges this short are scanned. */
+    private static final int SCAN_THRESHOLD = 8;
+
+    /** The interpolation probes tried before falling back to bisection. */
+    private static final int MAX_INTERPOLATIONS = 6;
+
+    /** The size of the direct buffers used by build. */
+    private static final int IO_BUFFER_BYTES = 1 << 22;
+
+    /** The mapped records. */
+    private volatile RecordStorage storage;
+
+    /** The fanout table. */
+    private final long[] fanout;
+
+    /** The number of UUIDs. */
+    private final long size;
+
+    /**
+     * <p>Constructs an index over mapped records.</p>
+     *
+     * @param storage the mapped records.
+     * @param fanout the fanout table.
+     */
+    private MappedUUIDIndex(RecordStorage storage, long[] fanout) {
+        super();
+        this.storage = storage;
+        this.fanout = fanout;
+        this.size = fanout[FANOUT_ENTRIES - 1];
+    }
+
+    /**
+     * <p>Maps an index file.</p>
+     *
+     * @param file the index file.
+     * @return the index.
+     * @throws IOException if the file cannot be mapped or is not an index file.
+     */
+    public static MappedUUIDIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        long[] fanout = new long[FANOUT_ENTRIES];
+        long count;
+        try {
+            if (raf.length() < RECORDS_OFFSET) {
+                throw new IOException(file + " is not a UUID index file.");
+            }
+            ByteBuffer head = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, RECORDS_OFFSET);
+            count = head.getLong(RecordStorage.HEADER_SIZE);
+            if (head.getInt(RecordStorage.HEADER_MAGIC) != MAGIC
+                    || head.getInt(RecordStorage.HEADER_FLAGS) != FANOUT_BITS
+                    || count < 0 || raf.length() != RECORDS_OFFSET + count * RecordStorage.RECORD_BYTES) {
+                throw new IOException(file + " is not a UUID index file.");
+            }
+            head.position(FANOUT_OFFSET);
+            head.asLongBuffer().get(fanout);
+        } finally {
+            raf.close();
+        }
+        if (fanout[0] != 0 || fanout[FANOUT_ENTRIES - 1] != count) {
+            throw new IOException(file + " has a corrupt fanout table.");
+        }
+        return new MappedUUIDIndex(RecordStorage.map(file, RECORDS_OFFSET, count, true), fanout);
+    }
+
+    /**
+     * <p>Writes an index file from a file of sorted records. The records are
+     * plain 16-byte big endian <code>msb, lsb</code> pairs in unsigned order;
+     * duplicates are written once.</p>
+     *
+     * @param sortedRecords the sorted record file.
+     * @param index the index file to create or replace.
+     * @return the number of distinct UUIDs indexed.
+     * @throws IOException if a file cannot be read or written, or the records
+     *  are not sorted.
+     */
+    public static long build(File sortedRecords, File index) throws IOException {
+        if (sortedRecords.length() % RecordStorage.RECORD_BYTES != 0) {
+            throw new IOException(sortedRecords + " is not a whole number of 16 byte records.");
+        }
+        long[] fanout = new long[FANOUT_ENTRIES];
+        long count = 0;
+        RandomAccessFile in = new RandomAccessFile(sortedRecords, "r");
+        RandomAccessFile out = new RandomAccessFile(index, "rw");
+        try {
+            FileChannel input = in.getChannel();
+            FileChannel output = out.getChannel();
+            out.setLength(0);
+            output.position(RECORDS_OFFSET);
+            ByteBuffer read = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.BIG_ENDIAN);
+            ByteBuffer write = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.BIG_ENDIAN);
+            read.flip();
+            long lastMost = 0;
+            long lastLeast = 0;
+            while (true) {
+                if (!read.hasRemaining()) {
+                    read.clear();
+                    while (read.hasRemaining() && input.read(read) >= 0) {
+                        // fill the buffer, or reach the end of the input
+                    }
+                    read.flip();
+                    if (!read.hasRemaining()) {
+                        break;
+                    }
+                }
+                long msb = read.getLong();
+                long lsb = read.getLong();
+                if (count > 0) {
+                    int order = UUID.compare(lastMost, lastLeast, msb, lsb);
+                    if (order == 0) {
+                        continue;
+                    }
+                    if (order > 0) {
+                        throw new IOException(sortedRecords + " is not sorted at record " + count);
+                    }
+                }
+                if (!write.hasRemaining()) {
+                    drain(write, output);
+                }
+                write.putLong(msb);
+                write.putLong(lsb);
+                fanout[(int) (msb >>> (64 - FANOUT_BITS)) + 1]++;
+                lastMost = msb;
+                lastLeast = lsb;
+                count++;
+            }
+            drain(write, output);
+            for (int b = 1; b < FANOUT_ENTRIES; b++) {
+                fanout[b] += fanout[b - 1];
+            }
+            ByteBuffer head = ByteBuffer.allocate(RECORDS_OFFSET).order(ByteOrder.BIG_ENDIAN);
+            head.putInt(RecordStorage.HEADER_MAGIC, MAGIC);
+            head.putInt(RecordStorage.HEADER_FLAGS, FANOUT_BITS);
+            head.putLong(RecordStorage.HEADER_SIZE, count);
+            head.position(FANOUT_OFFSET);
+            head.asLongBuffer().put(fanout);
+            head.clear();
+            output.position(0);
+            while (head.hasRemaining()) {
+                output.write(head);
+            }
+            output.force(true);
+        } finally {
+            in.close();
+            out.close();
+        }
+        return count;
+    }
+
+    /**
+     * <p>Writes out and clears a buffer.</p>
+     *
+     * @param buffer the buffer to write.
+     * @param channel the destination.
+     * @throws IOException if writing fails.
+     */
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * <p>Returns the number of UUIDs in the index.</p>
+     *
+     * @return the number of UUIDs.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * <p>Returns whether the index contains a UUID.</p>
+     *
+     * @param uuid the UUID to look for.
+     * @return true if the index contains the UUID.
+     */
+    public boolean contains(UUID uuid) {
+        return indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+    }
+
+    /**
+     * <p>Returns whether the index contains a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if the index contains the UUID.
+     */
+    public boolean contains(long mostSignificant, long leastSignificant) {
+        return indexOf(mostSignificant, leastSignificant) >= 0;
+    }
+
+    /**
+     * <p>Returns the position of a UUID in the sorted records.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the index of the UUID, or -1 if absent.
+     */
+    public long indexOf(long mostSignificant, long leastSignificant) {
+        RecordStorage records = checkOpen();
+        int bucket = (int) (mostSignificant >>> (64 - FANOUT_BITS));
+        long lo = fanout[bucket];
+        long hi = fanout[bucket + 1];
+        long key = mostSignificant & KEY_MASK;
+        // every key in [lo, hi) lies in [keyLo, keyHi)
+        long keyLo = 0;
+        long keyHi = KEY_MASK + 1;
+        int probes = 0;
+        while (hi - lo > SCAN_THRESHOLD) {
+            long pos;
+            if (probes++ < MAX_INTERPOLATIONS) {
+                pos = lo + (long) ((double) (key - keyLo) / (double) (keyHi - keyLo) * (hi - lo));
+                pos = Math.max(lo, Math.min(hi - 1, pos));
+            } else {
+                pos = (lo + hi) >>> 1;
+            }
+            long msb = records.mostSignificant(pos);
+            int order = UUID.compare(msb, records.leastSignificant(pos), mostSignificant, leastSignificant);
+            if (order == 0) {
+                return pos;
+            }
+            if (order < 0) {
+                lo = pos + 1;
+                keyLo = msb & KEY_MASK;
+            } else {
+                hi = pos;
+                keyHi = (msb & KEY_MASK) + 1;
+            }
+        }
+        for (long i = lo; i < hi; i++) {
+            if (records.mostSignificant(i) == mostSignificant && records.leastSignificant(i) == leastSignificant) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>Returns the UUID at a position of the sorted records.</p>
+     *
+     * @param index the position.
+     * @return the UUID at index.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public UUID get(long index) {
+        RecordStorage records = checkOpen();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + size + ")");
+        }
+        return new UUID(records.mostSignificant(index), records.leastSignificant(index));
+    }
+
+    /**
+     * <p>Releases the mapping. Lookups started afterwards throw
+     * <code>IllegalStateException</code>; lookups already running complete
+     * normally, and the mapping goes once the last of them has. Calling
+     * <code>close</code> on a closed index has no effect.</p>
+     */
+    public void close() {
+        // not RecordStorage.release, which would fail the lookups still reading
+        storage = null;
+    }
+
+    /**
+     * <p>Returns the storage of an open index.</p>
+     *
+     * @return the mapped records.
+     * @throws IllegalStateException if the index has been closed.
+     */
+    private RecordStorage checkOpen() {
+        RecordStorage records = storage;
+        if (records == null) {
+            throw new IllegalStateException("The index has been closed.");
+        }
+        return records;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.id.uuid.UUID;
+import org.apache.commons.id.uuid.UUIDCursor;
+
+/**
+ * <p>An append-only array of UUIDs held outside the Java heap, so that
+ * hundreds of millions of ids add nothing to garbage collection work.
+ * Elements are stored as 16-byte big endian records in direct memory or in
+ * a memory-mapped file.</p>
+ *
+ * <p>The array has an explicit lifetime: it owns its memory until
+ * {@link #close()} is called, after which every method other than
+ * <code>close</code> throws <code>IllegalStateException</code>. Reads return
+ * the two halves of a UUID as longs and never allocate. This class is not
+ * thread safe.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class OffHeapUUIDArray {
+
+    /** Magic number identifying an array file, "UUA0". */
+    static final int MAGIC = 0x55554130;
+
+    /** The record storage. */
+    private RecordStorage storage;
+
+    /** The number of UUIDs appended. */
+    private long size;
+
+    /** Whether the array was opened read only. */
+    private final boolean readOnly;
+
+    /**
+     * <p>Constructs an empty array in direct memory.</p>
+     *
+     * @param capacity the maximum number of UUIDs the array can hold.
+     * @throws IllegalArgumentException if capacity is negative.
+     */
+    public OffHeapUUIDArray(long capacity) {
+        this(RecordStorage.allocate(capacity), 0, false);
+    }
+
+    /**
+     * <p>Constructs an array over existing storage.</p>
+     *
+     * @param storage the record storage.
+     * @param size the number of UUIDs already held.
+     * @param readOnly whether appending is forbidden.
+     */
+    private OffHeapUUIDArray(RecordStorage storage, long size, boolean readOnly) {
+        super();
+        this.storage = storage;
+        this.size = size;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * <p>Maps an array onto a file for writing. If the file already holds
+     * an array its elements are kept, otherwise the array starts empty. The
+     * file grows to hold <code>capacity</code> elements; call
+     * {@link #flush()} or {@link #close()} to persist the element count.</p>
+     *
+     * @param file the file to map.
+     * @param capacity the maximum number of UUIDs the array can hold.
+     * @return the mapped array.
+     * @throws IOException if the file cannot be mapped or holds another structure.
+     */
+    public static OffHeapUUIDArray map(File file, long capacity) throws IOException {
+        long size = 0;
+        if (file.length() > 0) {
+            // validate before mapping, which would grow a file of another format
+            ByteBuffer header;
+            try {
+                header = RecordStorage.readHeader(file);
+            } catch (EOFException eofe) {
+                throw new IOException(file + " is not a UUID array file.");
+            }
+            size = checkHeader(header, RecordStorage.recordsIn(file), file);
+            if (size > capacity) {
+                throw new IOException(file + " holds " + size + " UUIDs, more than the capacity " + capacity);
+            }
+        }
+        return new OffHeapUUIDArray(RecordStorage.map(file, capacity, false), size, false);
+    }
+
+    /**
+     * <p>Maps an array file read only.</p>
+     *
+     * @param file the array file.
+     * @return the mapped array; appending throws <code>IllegalStateException</code>.
+     * @throws IOException if the file cannot be mapped or is not an array file.
+     */
+    public static OffHeapUUIDArray open(File file) throws IOException {
+        RecordStorage storage = RecordStorage.map(file, RecordStorage.recordsIn(file), true);
+        long size;
+        try {
+            size = checkHeader(storage.header(), storage.capacity(), file);
+        } catch (IOException ioe) {
+            storage.release();
+            throw ioe;
+        }
+        return new OffHeapUUIDArray(storage, size, true);
+    }
+
+    /**
+     * <p>Validates the header of an array file.</p>
+     *
+     * @param header the header.
+     * @param records the number of records the file holds.
+     * @param file the file, for error messages.
+     * @return the element count recorded in the header.
+     * @throws IOException if the header is not an array header.
+     */
+    private static long checkHeader(ByteBuffer header, long records, File file) throws IOException {
+        int magic = header.getInt(RecordStorage.HEADER_MAGIC);
+        long size = header.getLong(RecordStorage.HEADER_SIZE);
+        if ((magic != MAGIC && magic != SortedOffHeapUUIDArray.MAGIC) || size < 0 || size > records) {
+            throw new IOException(file + " is not a UUID array file.");
+        }
+        return size;
+    }
+
+    /**
+     * <p>Returns the number of UUIDs in the array.</p>
+     *
+     * @return the number of UUIDs.
+     */
+    public long size() {
+        checkOpen();
+        return size;
+    }
+
+    /**
+     * <p>Returns the maximum number of UUIDs the array can hold.</p>
+     *
+     * @return the capacity.
+     */
+    public long capacity() {
+        checkOpen();
+        return storage.capacity();
+    }
+
+    /**
+     * <p>Appends a UUID.</p>
+     *
+     * @param uuid the UUID to append.
+     * @return the index of the appended UUID.
+     * @throws IllegalStateException if the array is full, read only or closed.
+     */
+    public long add(UUID uuid) {
+        return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Appends a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the index of the appended UUID.
+     * @throws IllegalStateException if the array is full, read only or closed.
+     */
+    public long add(long mostSignificant, long leastSignificant) {
+        checkOpen();
+        if (readOnly) {
+            throw new IllegalStateException("The array is read only.");
+        }
+        if (size == storage.capacity()) {
+            throw new IllegalStateException("The array is full.");
+        }
+        storage.put(size, mostSignificant, leastSignificant);
+        return size++;
+    }
+
+    /**
+     * <p>Returns the most significant bits of an element.</p>
+     *
+     * @param index the element index.
+     * @return the most significant 64 bits.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public long getMostSignificantBits(long index) {
+        checkIndex(index);
+        return storage.mostSignificant(index);
+    }
+
+    /**
+     * <p>Returns the least significant bits of an element.</p>
+     *
+     * @param index the element index.
+     * @return the least significant 64 bits.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public long getLeastSignificantBits(long index) {
+        checkIndex(index);
+        return storage.leastSignificant(index);
+    }
+
+    /**
+     * <p>Returns an element as a new <code>UUID</code>.</p>
+     *
+     * @param index the element index.
+     * @return the UUID at index.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public UUID get(long index) {
+        checkIndex(index);
+        return new UUID(storage.mostSignificant(index), storage.leastSignificant(index));
+    }
+
+    /**
+     * <p>Points a cursor at an element without copying it. The cursor stays
+     * valid until the array is closed.</p>
+     *
+     * @param index the element index.
+     * @param cursor the cursor to reposition.
+     * @return the cursor.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public UUIDCursor cursor(long index, UUIDCursor cursor) {
+        checkIndex(index);
+        return cursor.wrap(storage.chunk(index), RecordStorage.offset(index));
+    }
+
+    /**
+     * <p>Writes the element count to the header and, for a file backed array,
+     * forces all changes to the file.</p>
+     */
+    public void flush() {
+        checkOpen();
+        if (!readOnly) {
+            storage.header().putInt(RecordStorage.HEADER_MAGIC, MAGIC);
+            storage.header().putLong(RecordStorage.HEADER_SIZE, size);
+            storage.force();
+        }
+    }
+
+    /**
+     * <p>Flushes and releases the array's memory. Calling <code>close</code>
+     * on a closed array has no effect.</p>
+     */
+    public void close() {
+        if (storage != null) {
+            flush();
+            storage.release();
+            storage = null;
+        }
+    }
+
+    /**
+     * <p>Hands the storage over to a new owner; the array is closed without
+     * releasing its memory.</p>
+     *
+     * @return the record storage.
+     */
+    RecordStorage detach() {
+        checkOpen();
+        if (readOnly) {
+            throw new IllegalStateException("The array is read only.");
+        }
+        RecordStorage detached = storage;
+        storage = null;
+        return detached;
+    }
+
+    /**
+     * <p>Returns the record storage.</p>
+     *
+     * @return the record storage.
+     */
+    RecordStorage storage() {
+        checkOpen();
+        return storage;
+    }
+
+    /**
+     * <p>Checks that the array has not been closed.</p>
+     *
+     * @throws IllegalStateException if the array has been closed.
+     */
+    private void checkOpen() {
+        if (storage == null) {
+            throw new IllegalStateException("The array has been closed.");
+        }
+    }
+
+    /**
+     * <p>Checks an element index.</p>
+     *
+     * @param index the index to check.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    private void checkIndex(long index) {
+        checkOpen();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + size + ").");
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.id.HashUtils;
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>A set of UUIDs held outside the Java heap in an open-addressing hash
+ * table with linear probing. Each slot is a 16-byte record; an all-zero
+ * slot is empty, and the nil UUID is tracked by a flag instead.</p>
+ *
+ * <p>The table is sized once, for a maximum number of elements at a load
+ * factor of at most 0.75, and never rehashes, so its memory footprint is
+ * fixed. It can live in direct memory or in a memory-mapped file, and has
+ * an explicit lifetime ending with {@link #close()}. Lookups never
+ * allocate. This class is not thread safe.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class OffHeapUUIDSet {
+
+    /** Magic number identifying a set file, "UUH0". */
+    static final int MAGIC = 0x55554830;
+
+    /** Header flag recording that the nil UUID is a member. */
+    private static final int FLAG_HAS_NIL = 0x01;
+
+    /** The slot storage, a power of two slots. */
+    private RecordStorage storage;
+
+    /** slots - 1. */
+    private final long mask;
+
+    /** The maximum number of elements. */
+    private final long maxSize;
+
+    /** The number of elements. */
+    private long size;
+
+    /** Whether the nil UUID is a member. */
+    private boolean hasNil;
+
+    /** Whether the set was opened read only. */
+    private final boolean readOnly;
+
+    /**
+     * <p>Constructs an empty set in direct memory.</p>
+     *
+     * @param maxSize the maximum number of UUIDs the set can hold.
+     * @throws IllegalArgumentException if maxSize is negative.
+     */
+    public OffHeapUUIDSet(long maxSize) {
+        this(RecordStorage.allocate(slotsFor(maxSize)), false);
+    }
+
+    /**
+     * <p>Constructs a set over slot storage.</p>
+     *
+     * @param storage the slot storage, a power of two records.
+     * @param readOnly whether modification is forbidden.
+     */
+    private OffHeapUUIDSet(RecordStorage storage, boolean readOnly) {
+        super();
+        this.storage = storage;
+        this.mask = storage.capacity() - 1;
+        // at least one slot always stays empty, or a probe for a missing UUID would never end
+        this.maxSize = Math.min(storage.capacity() - (storage.capacity() >>> 2), storage.capacity() - 1);
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * <p>Maps a set onto a file for writing. If the file already holds a
+     * set its elements are kept, provided it was created for the same
+     * maximum size. Call {@link #flush()} or {@link #close()} to persist the
+     * element count.</p>
+     *
+     * @param file the file to map.
+     * @param maxSize the maximum number of UUIDs the set can hold.
+     * @return the mapped set.
+     * @throws IOException if the file cannot be mapped or holds another structure.
+     */
+    public static OffHeapUUIDSet map(File file, long maxSize) throws IOException {
+        long slots = slotsFor(maxSize);
+        boolean exists = file.length() > 0;
+        if (exists && RecordStorage.recordsIn(file) != slots) {
+            throw new IOException(file + " holds a set of a different size.");
+        }
+        OffHeapUUIDSet set = new OffHeapUUIDSet(RecordStorage.map(file, slots, false), false);
+        if (exists) {
+            set.readHeader(file);
+        }
+        return set;
+    }
+
+    /**
+     * <p>Maps a set file read only.</p>
+     *
+     * @param file the set file.
+     * @return the mapped set; modification throws <code>IllegalStateException</code>.
+     * @throws IOException if the file cannot be mapped or is not a set file.
+     */
+    public static OffHeapUUIDSet open(File file) throws IOException {
+        long slots = RecordStorage.recordsIn(file);
+        if (slots == 0 || (slots & (slots - 1)) != 0) {
+            throw new IOException(file + " is not a UUID set file.");
+        }
+        OffHeapUUIDSet set = new OffHeapUUIDSet(RecordStorage.map(file, slots, true), true);
+        set.readHeader(file);
+        return set;
+    }
+
+    /**
+     * <p>Returns the number of slots needed for a maximum size.</p>
+     *
+     * @param maxSize the maximum number of elements.
+     * @return a power of two number of slots with a load factor of at most 0.75.
+     */
+    private static long slotsFor(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("The maximum size must not be negative.");
+        }
+        long slots = 4;
+        while (slots - (slots >>> 2) < maxSize) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    /**
+     * <p>Restores the element count and nil flag from a mapped header.</p>
+     *
+     * @param file the file, for error messages.
+     * @throws IOException if the header is not a set header.
+     */
+    private void readHeader(File file) throws IOException {
+        int magic = storage.header().getInt(RecordStorage.HEADER_MAGIC);
+        long count = storage.header().getLong(RecordStorage.HEADER_SIZE);
+        if (magic != MAGIC || count < 0 || count > maxSize) {
+            storage.release();
+            storage = null;
+            throw new IOException(file + " is not a UUID set file.");
+        }
+        size = count;
+        hasNil = (storage.header().getInt(RecordStorage.HEADER_FLAGS) & FLAG_HAS_NIL) != 0;
+    }
+
+    /**
+     * <p>Returns the number of UUIDs in the set.</p>
+     *
+     * @return the number of UUIDs.
+     */
+    public long size() {
+        checkOpen();
+        return size;
+    }
+
+    /**
+     * <p>Returns the maximum number of UUIDs the set can hold.</p>
+     *
+     * @return the maximum size.
+     */
+    public long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * <p>Returns whether the set contains a UUID.</p>
+     *
+     * @param uuid the UUID to look for.
+     * @return true if the set contains the UUID.
+     */
+    public boolean contains(UUID uuid) {
+        return contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Returns whether the set contains a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if the set contains the UUID.
+     */
+    public boolean contains(long mostSignificant, long leastSignificant) {
+        checkOpen();
+        if ((mostSignificant | leastSignificant) == 0) {
+            return hasNil;
+        }
+        long slot = slotOf(mostSignificant, leastSignificant);
+        return storage.mostSignificant(slot) != 0 || storage.leastSignificant(slot) != 0;
+    }
+
+    /**
+     * <p>Adds a UUID to the set.</p>
+     *
+     * @param uuid the UUID to add.
+     * @return true if the UUID was not already a member.
+     * @throws IllegalStateException if the set is full, read only or closed.
+     */
+    public boolean add(UUID uuid) {
+        return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Adds a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if the UUID was not already a member.
+     * @throws IllegalStateException if the set is full, read only or closed.
+     */
+    public boolean add(long mostSignificant, long leastSignificant) {
+        checkWritable();
+        if ((mostSignificant | leastSignificant) == 0) {
+            if (hasNil) {
+                return false;
+            }
+            checkRoom();
+            hasNil = true;
+            size++;
+            return true;
+        }
+        long slot = slotOf(mostSignificant, leastSignificant);
+        if (storage.mostSignificant(slot) != 0 || storage.leastSignificant(slot) != 0) {
+            return false;
+        }
+        checkRoom();
+        storage.put(slot, mostSignificant, leastSignificant);
+        size++;
+        return true;
+    }
+
+    /**
+     * <p>Removes a UUID from the set. Later entries of the probe sequence are
+     * shifted back so that no tombstones are left behind.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if the UUID was a member.
+     * @throws IllegalStateException if the set is read only or closed.
+     */
+    public boolean remove(long mostSignificant, long leastSignificant) {
+        checkWritable();
+        if ((mostSignificant | leastSignificant) == 0) {
+            if (!hasNil) {
+                return false;
+            }
+            hasNil = false;
+            size--;
+            return true;
+        }
+        long hole = slotOf(mostSignificant, leastSignificant);
+        if (storage.mostSignificant(hole) == 0 && storage.leastSignificant(hole) == 0) {
+            return false;
+        }
+        long slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long msb = storage.mostSignificant(slot);
+            long lsb = storage.leastSignificant(slot);
+            if ((msb | lsb) == 0) {
+                break;
+            }
+            long home = HashUtils.hash128To64(msb, lsb) & mask;
+            // move the entry back unless its home lies cyclically in (hole, slot]
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                storage.put(hole, msb, lsb);
+                hole = slot;
+            }
+        }
+        storage.put(hole, 0, 0);
+        size--;
+        return true;
+    }
+
+    /**
+     * <p>Removes a UUID from the set.</p>
+     *
+     * @param uuid the UUID to remove.
+     * @return true if the UUID was a member.
+     * @throws IllegalStateException if the set is read only or closed.
+     */
+    public boolean remove(UUID uuid) {
+        return remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Returns the slot holding a non-nil UUID, or the empty slot ending
+     * its probe sequence.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the slot index.
+     */
+    private long slotOf(long mostSignificant, long leastSignificant) {
+        RecordStorage slots = storage;
+        long slot = HashUtils.hash128To64(mostSignificant, leastSignificant) & mask;
+        while (true) {
+            long msb = slots.mostSignificant(slot);
+            long lsb = slots.leastSignificant(slot);
+            if ((msb == mostSignificant && lsb == leastSignificant) || (msb | lsb) == 0) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * <p>Writes the element count to the header and, for a file backed set,
+     * forces all changes to the file.</p>
+     */
+    public void flush() {
+        checkOpen();
+        if (!readOnly) {
+            storage.header().putInt(RecordStorage.HEADER_MAGIC, MAGIC);
+            storage.header().putInt(RecordStorage.HEADER_FLAGS, hasNil ? FLAG_HAS_NIL : 0);
+            storage.header().putLong(RecordStorage.HEADER_SIZE, size);
+            storage.force();
+        }
+    }
+
+    /**
+     * <p>Flushes and releases the set's memory. Calling <code>close</code> on
+     * a closed set has no effect.</p>
+     */
+    public void close() {
+        if (storage != null) {
+            flush();
+            storage.release();
+            storage = null;
+        }
+    }
+
+    /**
+     * <p>Checks that the set has not been closed.</p>
+     *
+     * @throws IllegalStateException if the set has been closed.
+     */
+    private void checkOpen() {
+        if (storage == null) {
+            throw new IllegalStateException("The set has been closed.");
+        }
+    }
+
+    /**
+     * <p>Checks that the set may be modified.</p>
+     *
+     * @throws IllegalStateException if the set is closed or read only.
+     */
+    private void checkWritable() {
+        checkOpen();
+        if (readOnly) {
+            throw new IllegalStateException("The set is read only.");
+        }
+    }
+
+    /**
+     * <p>Checks that another element fits.</p>
+     *
+     * @throws IllegalStateException if the set is full.
+     */
+    private void checkRoom() {
+        if (size == maxSize) {
+            throw new IllegalStateException("The set is full.");
+        }
+    }
+}
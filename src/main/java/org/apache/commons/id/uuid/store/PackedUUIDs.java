@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>Static methods over UUIDs packed into a <code>long[]</code> as
+ * consecutive <code>msb, lsb</code> pairs, so that record <code>i</code> is
+ * held by elements <code>2i</code> and <code>2i + 1</code>. The order used
+ * throughout is the unsigned order of
+ * {@link org.apache.commons.id.uuid.UUID#compare(long, long, long, long)}.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class PackedUUIDs {
+
+    /** The number of records compared per iteration of a scan. */
+    private static final int UNROLL = 4;
+
+    /**
+     * <p>Hide constructor in utility class.</p>
+     */
+    private PackedUUIDs() {
+    }
+
+    /**
+     * <p>Packs UUIDs into a new array.</p>
+     *
+     * @param uuids the UUIDs.
+     * @return the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     */
+    public static long[] pack(UUID[] uuids) {
+        long[] packed = new long[2 * uuids.length];
+        for (int i = 0; i < uuids.length; i++) {
+            packed[2 * i] = uuids[i].getMostSignificantBits();
+            packed[2 * i + 1] = uuids[i].getLeastSignificantBits();
+        }
+        return packed;
+    }
+
+    /**
+     * <p>Returns whether unsorted packed UUIDs contain a UUID.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param uuid the UUID to look for.
+     * @return true if some record equals uuid.
+     */
+    public static boolean contains(long[] packed, UUID uuid) {
+        return indexOf(packed, uuid) >= 0;
+    }
+
+    /**
+     * <p>Returns the first record of unsorted packed UUIDs equal to a UUID.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param uuid the UUID to look for.
+     * @return the index of the first matching record, or -1.
+     */
+    public static int indexOf(long[] packed, UUID uuid) {
+        return indexOf(packed, 0, packed.length >>> 1, uuid.getMostSignificantBits(),
+                uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Returns the first record of unsorted packed UUIDs equal to a UUID
+     * given by its two halves.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the index of the first matching record, or -1.
+     */
+    public static int indexOf(long[] packed, long mostSignificant, long leastSignificant) {
+        return indexOf(packed, 0, packed.length >>> 1, mostSignificant, leastSignificant);
+    }
+
+    /**
+     * <p>Returns the first record in <code>[from, to)</code> of unsorted
+     * packed UUIDs equal to a UUID given by its two halves. The scan
+     * compares four records per iteration with XOR and OR and branches once
+     * per iteration, so it streams through the array without touching any
+     * objects.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param from the first record to compare.
+     * @param to the index after the last record to compare.
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the index of the first matching record, or -1.
+     * @throws IndexOutOfBoundsException if the range is not within packed.
+     */
+    public static int indexOf(long[] packed, int from, int to, long mostSignificant, long leastSignificant) {
+        checkRange(packed, from, to);
+        int i = from;
+        for (int end = to - UNROLL + 1; i < end; i += UNROLL) {
+            int p = 2 * i;
+            long d0 = (packed[p] ^ mostSignificant) | (packed[p + 1] ^ leastSignificant);
+            long d1 = (packed[p + 2] ^ mostSignificant) | (packed[p + 3] ^ leastSignificant);
+            long d2 = (packed[p + 4] ^ mostSignificant) | (packed[p + 5] ^ leastSignificant);
+            long d3 = (packed[p + 6] ^ mostSignificant) | (packed[p + 7] ^ leastSignificant);
+            if ((d0 == 0) | (d1 == 0) | (d2 == 0) | (d3 == 0)) {
+                return d0 == 0 ? i : d1 == 0 ? i + 1 : d2 == 0 ? i + 2 : i + 3;
+            }
+        }
+        for (; i < to; i++) {
+            if (packed[2 * i] == mostSignificant && packed[2 * i + 1] == leastSignificant) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>Returns every record of unsorted packed UUIDs equal to a UUID given
+     * by its two halves.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the indexes of the matching records in ascending order, possibly empty.
+     */
+    public static int[] indexesOf(long[] packed, long mostSignificant, long leastSignificant) {
+        int to = packed.length >>> 1;
+        int[] found = new int[UNROLL];
+        int count = 0;
+        for (int i = indexOf(packed, 0, to, mostSignificant, leastSignificant); i >= 0;
+                i = indexOf(packed, i + 1, to, mostSignificant, leastSignificant)) {
+            if (count == found.length) {
+                int[] grown = new int[2 * count];
+                System.arraycopy(found, 0, grown, 0, count);
+                found = grown;
+            }
+            found[count++] = i;
+        }
+        int[] result = new int[count];
+        System.arraycopy(found, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * <p>Sorts packed UUIDs in place, in unsigned order.</p>
+     *
+     * @param packed the packed UUIDs.
+     */
+    public static void sort(long[] packed) {
+        sort(packed, 0, packed.length >>> 1);
+    }
+
+    /**
+     * <p>Sorts the packed records in <code>[from, to)</code> in place, in
+     * unsigned order. The sign bits are flipped up front so that the sort
+     * itself can use plain signed comparisons, and flipped back afterwards.
+     * Uses quicksort with a median of three pivot, falling back to heapsort
+     * when partitioning degenerates.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param from the first record to sort.
+     * @param to the index after the last record to sort.
+     * @throws IndexOutOfBoundsException if the range is not within packed.
+     */
+    public static void sort(long[] packed, int from, int to) {
+        checkRange(packed, from, to);
+        flipSigns(packed, from, to);
+        new FlippedSorter(packed).sort(from, to);
+        flipSigns(packed, from, to);
+    }
+
+    /**
+     * <p>Returns whether packed records are sorted in unsigned order.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @return true if every record is at most the next one.
+     */
+    public static boolean isSorted(long[] packed) {
+        for (int i = 2; i + 1 < packed.length; i += 2) {
+            if (compare(packed[i - 2] ^ Long.MIN_VALUE, packed[i - 1] ^ Long.MIN_VALUE,
+                    packed[i] ^ Long.MIN_VALUE, packed[i + 1] ^ Long.MIN_VALUE) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Checks that a range of records lies within an array.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param from the first record.
+     * @param to the index after the last record.
+     * @throws IndexOutOfBoundsException if the range is not within packed.
+     */
+    private static void checkRange(long[] packed, int from, int to) {
+        if (from < 0 || from > to || to > packed.length >>> 1) {
+            throw new IndexOutOfBoundsException("Records " + from + " to " + to
+                    + " are not within " + (packed.length >>> 1));
+        }
+    }
+
+    /**
+     * <p>Toggles the sign bit of every long of a range of records, mapping
+     * unsigned order onto signed order and back.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param from the first record.
+     * @param to the index after the last record.
+     */
+    static void flipSigns(long[] packed, int from, int to) {
+        for (int i = 2 * from; i < 2 * to; i++) {
+            packed[i] ^= Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * <p>Compares two records whose sign bits have been flipped.</p>
+     *
+     * @param lhsMost the first record's most significant bits.
+     * @param lhsLeast the first record's least significant bits.
+     * @param rhsMost the second record's most significant bits.
+     * @param rhsLeast the second record's least significant bits.
+     * @return the unsigned comparison of the original records.
+     */
+    static int compare(long lhsMost, long lhsLeast, long rhsMost, long rhsLeast) {
+        if (lhsMost != rhsMost) {
+            return lhsMost < rhsMost ? -1 : 1;
+        }
+        if (lhsLeast != rhsLeast) {
+            return lhsLeast < rhsLeast ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * <p>The sorter over a packed array whose sign bits have been flipped,
+     * compared with plain signed comparisons.</p>
+     */
+    private static final class FlippedSorter extends RecordSorter {
+
+        /** The packed UUIDs. */
+        private final long[] packed;
+
+        /**
+         * <p>Constructs a sorter.</p>
+         *
+         * @param packed the packed UUIDs, sign bits flipped.
+         */
+        FlippedSorter(long[] packed) {
+            super();
+            this.packed = packed;
+        }
+
+        long mostSignificant(long index) {
+            return packed[2 * (int) index];
+        }
+
+        long leastSignificant(long index) {
+            return packed[2 * (int) index + 1];
+        }
+
+        void put(long index, long mostSignificant, long leastSignificant) {
+            packed[2 * (int) index] = mostSignificant;
+            packed[2 * (int) index + 1] = leastSignificant;
+        }
+
+        int compare(long lhsMost, long lhsLeast, long rhsMost, long rhsLeast) {
+            return PackedUUIDs.compare(lhsMost, lhsLeast, rhsMost, rhsLeast);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>The in-place sort of UUID records shared by the containers of this
+ * package, over an accessor to the records: quicksort with a median of three
+ * pivot, falling back to heapsort when partitioning degenerates and to
+ * insertion sort for short ranges. Subclasses supply record access and may
+ * replace the comparison, which is that of
+ * {@link UUID#compare(long, long, long, long)}.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+abstract class RecordSorter {
+
+    /** Ranges at most this long are insertion sorted. */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * <p>Returns the most significant bits of a record.</p>
+     *
+     * @param index the record index.
+     * @return the most significant 64 bits.
+     */
+    abstract long mostSignificant(long index);
+
+    /**
+     * <p>Returns the least significant bits of a record.</p>
+     *
+     * @param index the record index.
+     * @return the least significant 64 bits.
+     */
+    abstract long leastSignificant(long index);
+
+    /**
+     * <p>Writes a record.</p>
+     *
+     * @param index the record index.
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     */
+    abstract void put(long index, long mostSignificant, long leastSignificant);
+
+    /**
+     * <p>Compares two records given by their bits.</p>
+     *
+     * @param lhsMost the first record's most significant bits.
+     * @param lhsLeast the first record's least significant bits.
+     * @param rhsMost the second record's most significant bits.
+     * @param rhsLeast the second record's least significant bits.
+     * @return a negative integer, zero, or a positive integer as the first
+     *  record is less than, equal to, or greater than the second.
+     */
+    int compare(long lhsMost, long lhsLeast, long rhsMost, long rhsLeast) {
+        return UUID.compare(lhsMost, lhsLeast, rhsMost, rhsLeast);
+    }
+
+    /**
+     * <p>Sorts the records in <code>[from, to)</code> in place.</p>
+     *
+     * @param from the first record to sort.
+     * @param to the index after the last record to sort.
+     */
+    final void sort(long from, long to) {
+        int depth = 2 * (64 - Long.numberOfLeadingZeros(Math.max(1, to - from)));
+        introSort(from, to - 1, depth);
+    }
+
+    /**
+     * <p>Compares two records.</p>
+     *
+     * @param i the first record index.
+     * @param j the second record index.
+     * @return the comparison of record i to record j.
+     */
+    private int compare(long i, long j) {
+        return compare(mostSignificant(i), leastSignificant(i), mostSignificant(j), leastSignificant(j));
+    }
+
+    /**
+     * <p>Swaps two records.</p>
+     *
+     * @param i the first record index.
+     * @param j the second record index.
+     */
+    private void swap(long i, long j) {
+        long msb = mostSignificant(i);
+        long lsb = leastSignificant(i);
+        put(i, mostSignificant(j), leastSignificant(j));
+        put(j, msb, lsb);
+    }
+
+    /**
+     * <p>Sorts the records in <code>[lo, hi]</code>.</p>
+     *
+     * @param lo the first record.
+     * @param hi the last record.
+     * @param depth the partitioning depth left before falling back to heapsort.
+     */
+    private void introSort(long lo, long hi, int depth) {
+        while (hi - lo > INSERTION_SORT_THRESHOLD) {
+            if (depth-- == 0) {
+                heapSort(lo, hi);
+                return;
+            }
+            long mid = lo + ((hi - lo) >>> 1);
+            if (compare(mid, lo) < 0) {
+                swap(mid, lo);
+            }
+            if (compare(hi, lo) < 0) {
+                swap(hi, lo);
+            }
+            if (compare(hi, mid) < 0) {
+                swap(hi, mid);
+            }
+            long pivotMost = mostSignificant(mid);
+            long pivotLeast = leastSignificant(mid);
+            long i = lo;
+            long j = hi;
+            while (i <= j) {
+                while (compare(mostSignificant(i), leastSignificant(i), pivotMost, pivotLeast) < 0) {
+                    i++;
+                }
+                while (compare(mostSignificant(j), leastSignificant(j), pivotMost, pivotLeast) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // recurse into the smaller side to bound the stack
+            if (j - lo < hi - i) {
+                introSort(lo, j, depth);
+                lo = i;
+            } else {
+                introSort(i, hi, depth);
+                hi = j;
+            }
+        }
+        for (long i = lo + 1; i <= hi; i++) {
+            long msb = mostSignificant(i);
+            long lsb = leastSignificant(i);
+            long j = i;
+            while (j > lo && compare(msb, lsb, mostSignificant(j - 1), leastSignificant(j - 1)) < 0) {
+                put(j, mostSignificant(j - 1), leastSignificant(j - 1));
+                j--;
+            }
+            put(j, msb, lsb);
+        }
+    }
+
+    /**
+     * <p>Heapsorts the records in <code>[lo, hi]</code>.</p>
+     *
+     * @param lo the first record.
+     * @param hi the last record.
+     */
+    private void heapSort(long lo, long hi) {
+        long n = hi - lo + 1;
+        for (long i = n / 2 - 1; i >= 0; i--) {
+            siftDown(lo, i, n);
+        }
+        for (long end = n - 1; end > 0; end--) {
+            swap(lo, lo + end);
+            siftDown(lo, 0, end);
+        }
+    }
+
+    /**
+     * <p>Restores the heap property below a node.</p>
+     *
+     * @param base the index of the heap root.
+     * @param node the node to sift, relative to base.
+     * @param n the heap size.
+     */
+    private void siftDown(long base, long node, long n) {
+        long child;
+        while ((child = 2 * node + 1) < n) {
+            if (child + 1 < n && compare(base + child, base + child + 1) < 0) {
+                child++;
+            }
+            if (compare(base + node, base + child) >= 0) {
+                return;
+            }
+            swap(base + node, base + child);
+            node = child;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * <p>Off-heap storage for a fixed number of 16-byte UUID records, preceded by
+ * a 16-byte header. Records are big endian <code>msb, lsb</code> pairs.
+ * Storage is split into chunks of 2^26 records (1 GiB) because a single
+ * <code>ByteBuffer</code> cannot address more than 2 GiB.</p>
+ *
+ * <p>Storage is either direct memory or a file mapped with
+ * <code>FileChannel.map</code>. {@link #release()} drops every reference to
+ * the buffers; the memory itself is returned once the buffers are
+ * collected, which is the earliest point the platform allows.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+final class RecordStorage {
+
+    /** Bytes in a record. */
+    static final int RECORD_BYTES = 16;
+
+    /** Bytes in the header preceding the records. */
+    static final int HEADER_BYTES = 16;
+
+    /** Position of the magic number in the header. */
+    static final int HEADER_MAGIC = 0;
+
+    /** Position of the flags in the header. */
+    static final int HEADER_FLAGS = 4;
+
+    /** Position of the element count in the header. */
+    static final int HEADER_SIZE = 8;
+
+    /** log2 of the records in a chunk. */
+    private static final int CHUNK_SHIFT = 26;
+
+    /** Mask of a record's index within its chunk. */
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    /** log2 of RECORD_BYTES. */
+    private static final int RECORD_SHIFT = 4;
+
+    /** The number of records held. */
+    private final long capacity;
+
+    /** The header, heap allocated unless the storage is file backed. */
+    private ByteBuffer header;
+
+    /** The record chunks. */
+    private ByteBuffer[] chunks;
+
+    /**
+     * <p>Constructs storage over the given buffers.</p>
+     *
+     * @param capacity the number of records held.
+     * @param header the header buffer.
+     * @param chunks the record chunks.
+     */
+    private RecordStorage(long capacity, ByteBuffer header, ByteBuffer[] chunks) {
+        super();
+        this.capacity = capacity;
+        this.header = header;
+        this.chunks = chunks;
+    }
+
+    /**
+     * <p>Allocates zeroed storage in direct memory.</p>
+     *
+     * @param capacity the number of records to hold.
+     * @return the new storage.
+     */
+    static RecordStorage allocate(long capacity) {
+        checkCapacity(capacity);
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(capacity)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(chunkBytes(capacity, i)).order(ByteOrder.BIG_ENDIAN);
+        }
+        return new RecordStorage(capacity, ByteBuffer.allocate(HEADER_BYTES), chunks);
+    }
+
+    /**
+     * <p>Maps storage onto a file. A writable mapping grows the file to hold
+     * the header and <code>capacity</code> records; new space reads as
+     * zero.</p>
+     *
+     * @param file the file to map.
+     * @param capacity the number of records to map.
+     * @param readOnly whether to map the file read only.
+     * @return the mapped storage.
+     * @throws IOException if the file cannot be mapped.
+     */
+    static RecordStorage map(File file, long capacity, boolean readOnly) throws IOException {
+        return map(file, HEADER_BYTES, capacity, readOnly);
+    }
+
+    /**
+     * <p>Maps storage onto a file whose records start further in, leaving
+     * room after the header for data the container maps itself.</p>
+     *
+     * @param file the file to map.
+     * @param recordsOffset the position in the file of the first record, at
+     *  least the header size.
+     * @param capacity the number of records to map.
+     * @param readOnly whether to map the file read only.
+     * @return the mapped storage.
+     * @throws IOException if the file cannot be mapped.
+     */
+    static RecordStorage map(File file, long recordsOffset, long capacity, boolean readOnly) throws IOException {
+        checkCapacity(capacity);
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(mode, 0, HEADER_BYTES);
+            ByteBuffer[] chunks = new ByteBuffer[chunkCount(capacity)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = recordsOffset + ((((long) i) << CHUNK_SHIFT) << RECORD_SHIFT);
+                chunks[i] = channel.map(mode, position, chunkBytes(capacity, i));
+            }
+            return new RecordStorage(capacity, header, chunks);
+        } finally {
+            // the mappings stay valid once the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * <p>Reads the header of a storage file without mapping, and so without
+     * growing, the file.</p>
+     *
+     * @param file the storage file.
+     * @return a copy of the header.
+     * @throws IOException if the file cannot be read or is shorter than a header.
+     */
+    static ByteBuffer readHeader(File file) throws IOException {
+        byte[] header = new byte[HEADER_BYTES];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(header);
+        } finally {
+            raf.close();
+        }
+        return ByteBuffer.wrap(header);
+    }
+
+    /**
+     * <p>Returns the number of whole records a storage file holds.</p>
+     *
+     * @param file the storage file.
+     * @return the number of records after the header.
+     */
+    static long recordsIn(File file) {
+        return Math.max(0, file.length() - HEADER_BYTES) >> RECORD_SHIFT;
+    }
+
+    /**
+     * <p>Returns the number of records held.</p>
+     *
+     * @return the capacity in records.
+     */
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * <p>Returns the header buffer; its content is owned by the container.</p>
+     *
+     * @return the header buffer.
+     */
+    ByteBuffer header() {
+        return header;
+    }
+
+    /**
+     * <p>Returns whether {@link #release()} has been called.</p>
+     *
+     * @return true once released.
+     */
+    boolean isReleased() {
+        return chunks == null;
+    }
+
+    /**
+     * <p>Returns the chunk holding a record.</p>
+     *
+     * @param index the record index.
+     * @return the chunk holding the record.
+     */
+    ByteBuffer chunk(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * <p>Returns the byte offset of a record within its chunk.</p>
+     *
+     * @param index the record index.
+     * @return the offset of the record in {@link #chunk(long)}.
+     */
+    static int offset(long index) {
+        return (int) (index & CHUNK_MASK) << RECORD_SHIFT;
+    }
+
+    /**
+     * <p>Returns the most significant bits of a record.</p>
+     *
+     * @param index the record index.
+     * @return the most significant bits.
+     */
+    long mostSignificant(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].getLong(offset(index));
+    }
+
+    /**
+     * <p>Returns the least significant bits of a record.</p>
+     *
+     * @param index the record index.
+     * @return the least significant bits.
+     */
+    long leastSignificant(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].getLong(offset(index) + 8);
+    }
+
+    /**
+     * <p>Returns a 64-bit word, for containers that treat the records as an
+     * array of longs: word <code>2i</code> is the most and word
+     * <code>2i + 1</code> the least significant half of record
+     * <code>i</code>.</p>
+     *
+     * @param index the word index.
+     * @return the word.
+     */
+    long word(long index) {
+        long record = index >>> 1;
+        return chunks[(int) (record >>> CHUNK_SHIFT)].getLong(offset(record) + (((int) index & 1) << 3));
+    }
+
+    /**
+     * <p>Writes a 64-bit word; see {@link #word(long)}.</p>
+     *
+     * @param index the word index.
+     * @param value the word.
+     */
+    void putWord(long index, long value) {
+        long record = index >>> 1;
+        chunks[(int) (record >>> CHUNK_SHIFT)].putLong(offset(record) + (((int) index & 1) << 3), value);
+    }
+
+    /**
+     * <p>Writes a record.</p>
+     *
+     * @param index the record index.
+     * @param mostSignificant the most significant bits.
+     * @param leastSignificant the least significant bits.
+     */
+    void put(long index, long mostSignificant, long leastSignificant) {
+        ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+        int offset = offset(index);
+        chunk.putLong(offset, mostSignificant);
+        chunk.putLong(offset + 8, leastSignificant);
+    }
+
+    /**
+     * <p>Sorts the records in <code>[from, to)</code> in place, in unsigned
+     * order.</p>
+     *
+     * @param from the first record to sort.
+     * @param to the index after the last record to sort.
+     * @see RecordSorter
+     */
+    void sort(long from, long to) {
+        new RecordSorter() {
+            long mostSignificant(long index) {
+                return RecordStorage.this.mostSignificant(index);
+            }
+
+            long leastSignificant(long index) {
+                return RecordStorage.this.leastSignificant(index);
+            }
+
+            void put(long index, long mostSignificant, long leastSignificant) {
+                RecordStorage.this.put(index, mostSignificant, leastSignificant);
+            }
+        }.sort(from, to);
+    }
+
+    /**
+     * <p>Flushes changes to a file backed storage to the file.</p>
+     */
+    void force() {
+        if (header instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) header).force();
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) chunks[i]).force();
+            }
+        }
+    }
+
+    /**
+     * <p>Drops the references to the buffers; further access fails.</p>
+     */
+    void release() {
+        header = null;
+        chunks = null;
+    }
+
+    /**
+     * <p>Validates a record capacity.</p>
+     *
+     * @param capacity the capacity to check.
+     * @throws IllegalArgumentException if capacity is negative.
+     */
+    private static void checkCapacity(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative.");
+        }
+    }
+
+    /**
+     * <p>Returns the number of chunks needed for a capacity.</p>
+     *
+     * @param capacity the number of records.
+     * @return the number of chunks.
+     */
+    private static int chunkCount(long capacity) {
+        return (int) ((capacity + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    /**
+     * <p>Returns the size in bytes of a chunk.</p>
+     *
+     * @param capacity the number of records.
+     * @param chunk the chunk index.
+     * @return the number of bytes in the chunk.
+     */
+    private static int chunkBytes(long capacity, int chunk) {
+        long records = Math.min(capacity - (((long) chunk) << CHUNK_SHIFT), CHUNK_MASK + 1);
+        return (int) (records << RECORD_SHIFT);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.id.uuid.UUID;
+import org.apache.commons.id.uuid.UUIDCursor;
+
+/**
+ * <p>A sorted, immutable array of UUIDs held outside the Java heap and
+ * searched by binary search. Elements are in the unsigned order of
+ * {@link UUID#compare(long, long, long, long)}; duplicates are allowed.</p>
+ *
+ * <p>An instance is created by sorting an {@link OffHeapUUIDArray} in place,
+ * or by mapping a file written by a sorted array. Like the unsorted array it
+ * has an explicit lifetime ending with {@link #close()}. Searches never
+ * allocate. This class is not thread safe for closing; concurrent searches
+ * are safe.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class SortedOffHeapUUIDArray {
+
+    /** Magic number identifying a sorted array file, "UUS0". */
+    static final int MAGIC = 0x55555330;
+
+    /** The record storage. */
+    private RecordStorage storage;
+
+    /** The number of UUIDs held. */
+    private final long size;
+
+    /** Whether the array was opened read only. */
+    private final boolean readOnly;
+
+    /**
+     * <p>Constructs a sorted array over sorted storage.</p>
+     *
+     * @param storage the sorted record storage.
+     * @param size the number of UUIDs held.
+     * @param readOnly whether the storage is mapped read only.
+     */
+    private SortedOffHeapUUIDArray(RecordStorage storage, long size, boolean readOnly) {
+        super();
+        this.storage = storage;
+        this.size = size;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * <p>Sorts an array in place and takes ownership of its memory; the
+     * given array is closed. If the array was file backed the sorted
+     * elements are flushed to the file, which can later be reopened with
+     * {@link #open(File)}.</p>
+     *
+     * @param array the array to sort.
+     * @return the sorted array.
+     * @throws IllegalStateException if the array is closed or read only.
+     */
+    public static SortedOffHeapUUIDArray sort(OffHeapUUIDArray array) {
+        long size = array.size();
+        RecordStorage storage = array.detach();
+        storage.sort(0, size);
+        storage.header().putInt(RecordStorage.HEADER_MAGIC, MAGIC);
+        storage.header().putLong(RecordStorage.HEADER_SIZE, size);
+        storage.force();
+        return new SortedOffHeapUUIDArray(storage, size, false);
+    }
+
+    /**
+     * <p>Maps a sorted array file read only.</p>
+     *
+     * @param file the file written by a sorted array.
+     * @return the mapped sorted array.
+     * @throws IOException if the file cannot be mapped or is not a sorted array file.
+     */
+    public static SortedOffHeapUUIDArray open(File file) throws IOException {
+        RecordStorage storage = RecordStorage.map(file, RecordStorage.recordsIn(file), true);
+        int magic = storage.header().getInt(RecordStorage.HEADER_MAGIC);
+        long size = storage.header().getLong(RecordStorage.HEADER_SIZE);
+        if (magic != MAGIC || size < 0 || size > storage.capacity()) {
+            storage.release();
+            throw new IOException(file + " is not a sorted UUID array file.");
+        }
+        return new SortedOffHeapUUIDArray(storage, size, true);
+    }
+
+    /**
+     * <p>Returns the number of UUIDs in the array.</p>
+     *
+     * @return the number of UUIDs.
+     */
+    public long size() {
+        checkOpen();
+        return size;
+    }
+
+    /**
+     * <p>Returns whether the array contains a UUID.</p>
+     *
+     * @param uuid the UUID to look for.
+     * @return true if the array contains the UUID.
+     */
+    public boolean contains(UUID uuid) {
+        return indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+    }
+
+    /**
+     * <p>Returns whether the array contains a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if the array contains the UUID.
+     */
+    public boolean contains(long mostSignificant, long leastSignificant) {
+        return indexOf(mostSignificant, leastSignificant) >= 0;
+    }
+
+    /**
+     * <p>Binary searches for a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the index of a matching element; otherwise
+     *  <code>-(insertion point) - 1</code>.
+     */
+    public long indexOf(long mostSignificant, long leastSignificant) {
+        checkOpen();
+        RecordStorage records = storage;
+        long lo = 0;
+        long hi = size - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int cmp = UUID.compare(records.mostSignificant(mid), records.leastSignificant(mid),
+                    mostSignificant, leastSignificant);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * <p>Returns the most significant bits of an element.</p>
+     *
+     * @param index the element index.
+     * @return the most significant 64 bits.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public long getMostSignificantBits(long index) {
+        checkIndex(index);
+        return storage.mostSignificant(index);
+    }
+
+    /**
+     * <p>Returns the least significant bits of an element.</p>
+     *
+     * @param index the element index.
+     * @return the least significant 64 bits.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public long getLeastSignificantBits(long index) {
+        checkIndex(index);
+        return storage.leastSignificant(index);
+    }
+
+    /**
+     * <p>Returns an element as a new <code>UUID</code>.</p>
+     *
+     * @param index the element index.
+     * @return the UUID at index.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public UUID get(long index) {
+        checkIndex(index);
+        return new UUID(storage.mostSignificant(index), storage.leastSignificant(index));
+    }
+
+    /**
+     * <p>Points a cursor at an element without copying it. The cursor stays
+     * valid until the array is closed.</p>
+     *
+     * @param index the element index.
+     * @param cursor the cursor to reposition.
+     * @return the cursor.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public UUIDCursor cursor(long index, UUIDCursor cursor) {
+        checkIndex(index);
+        return cursor.wrap(storage.chunk(index), RecordStorage.offset(index));
+    }
+
+    /**
+     * <p>Releases the array's memory. Calling <code>close</code> on a closed
+     * array has no effect.</p>
+     */
+    public void close() {
+        if (storage != null) {
+            if (!readOnly) {
+                storage.force();
+            }
+            storage.release();
+            storage = null;
+        }
+    }
+
+    /**
+     * <p>Returns the record storage.</p>
+     *
+     * @return the record storage.
+     */
+    RecordStorage storage() {
+        checkOpen();
+        return storage;
+    }
+
+    /**
+     * <p>Checks that the array has not been closed.</p>
+     *
+     * @throws IllegalStateException if the array has been closed.
+     */
+    private void checkOpen() {
+        if (storage == null) {
+            throw new IllegalStateException("The array has been closed.");
+        }
+    }
+
+    /**
+     * <p>Checks an element index.</p>
+     *
+     * @param index the index to check.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    private void checkIndex(long index) {
+        checkOpen();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + size + ").");
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.id.HashUtils;
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>A cuckoo filter over UUIDs: like a Bloom filter it answers "possibly
+ * present" or "certainly absent", but it also supports removal. Each UUID is
+ * reduced to a 16-bit fingerprint stored in one of two candidate buckets of
+ * four fingerprints. A bucket is exactly one 64-bit word, so a lookup reads
+ * two words and compares all four fingerprints of each at once. The false
+ * positive probability is about 8 / 65535, or 1.2e-4, and the filter holds
+ * up to about 95% of its slots.</p>
+ *
+ * <p>The 128-bit value is hashed directly with
+ * {@link HashUtils#hash128To64(long, long)}: the low bits pick the first
+ * bucket, the top 16 bits are the fingerprint, and the second bucket is the
+ * first exclusive-or a hash of the fingerprint, so either bucket can be
+ * found from the other.</p>
+ *
+ * <p>Lookups never block, and an insertion that finds a free slot in one of
+ * its buckets claims it with compare-and-set. When both buckets are full,
+ * the insertion takes a lock, searches breadth first for the shortest path
+ * of fingerprints leading to a free slot and moves them along it, last move
+ * first. Every move copies a fingerprint before clearing its old slot, but a
+ * lookup that has already read the destination bucket could still miss the
+ * fingerprint, so relocations also bump a version counter, odd while they
+ * run. A lookup that misses rereads both buckets if the counter was odd or
+ * changed meanwhile, and therefore never misses a UUID whose
+ * <code>put</code> has returned. Removals take the same lock.</p>
+ *
+ * <p>Removing a UUID that was never added may remove another UUID sharing
+ * its fingerprint and buckets; remove only what was added. Adding a UUID
+ * twice stores it twice, up to eight times.</p>
+ *
+ * <p>{@link #writeTo(File)} saves the filter to a file that
+ * {@link #open(File)} maps read only, or {@link #load(File)} reads back
+ * for further changes.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDCuckooFilter {
+
+    /** Magic number identifying a filter file, "UUC0". */
+    static final int MAGIC = 0x55554330;
+
+    /** The number of fingerprints in a bucket. */
+    private static final int BUCKET_SLOTS = 4;
+
+    /** The bits of a fingerprint. */
+    private static final int FINGERPRINT_BITS = 16;
+
+    /** Mask of a fingerprint. */
+    private static final long FINGERPRINT_MASK = (1L << FINGERPRINT_BITS) - 1;
+
+    /** A one in the low bit of every fingerprint slot of a bucket. */
+    private static final long LOW_BITS = 0x0001000100010001L;
+
+    /** A one in the high bit of every fingerprint slot of a bucket. */
+    private static final long HIGH_BITS = 0x8000800080008000L;
+
+    /** The fraction of slots the constructor sizes the filter to keep free. */
+    private static final double LOAD_FACTOR = 0.95;
+
+    /** The largest number of buckets. */
+    private static final int MAX_BUCKETS = 1 << 30;
+
+    /** The most buckets a relocation search visits. */
+    private static final int MAX_SEARCH = 512;
+
+    /** The relocations an insertion tries before reporting the filter full. */
+    private static final int MAX_RELOCATIONS = 8;
+
+    /** buckets - 1. */
+    private final int mask;
+
+    /** The buckets of a filter in memory, or null for a mapped filter. */
+    private final AtomicLongArray buckets;
+
+    /** The buckets of a mapped filter, or null; set to null by close. */
+    private volatile RecordStorage storage;
+
+    /** The number of fingerprints stored. */
+    private final AtomicLong size;
+
+    /** Serializes relocations and removals. */
+    private final Object lock = new Object();
+
+    /** The relocation version: odd while fingerprints are being moved. */
+    private final AtomicLong relocations = new AtomicLong();
+
+    /**
+     * <p>Constructs an empty filter sized for a number of UUIDs.</p>
+     *
+     * @param capacity the number of UUIDs the filter must hold.
+     * @throws IllegalArgumentException if capacity is negative or needs more
+     *  than 2^30 buckets.
+     */
+    public UUIDCuckooFilter(long capacity) {
+        this(new AtomicLongArray(bucketsFor(capacity)), 0);
+    }
+
+    /**
+     * <p>Constructs a filter over buckets in memory.</p>
+     *
+     * @param buckets the buckets, a power of two.
+     * @param size the number of fingerprints stored.
+     */
+    private UUIDCuckooFilter(AtomicLongArray buckets, long size) {
+        super();
+        this.mask = buckets.length() - 1;
+        this.buckets = buckets;
+        this.storage = null;
+        this.size = new AtomicLong(size);
+    }
+
+    /**
+     * <p>Returns the number of buckets for a capacity.</p>
+     *
+     * @param capacity the number of UUIDs the filter must hold.
+     * @return a power of two number of buckets.
+     */
+    private static int bucketsFor(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity must not be negative.");
+        }
+        long buckets = 2;
+        while (buckets * BUCKET_SLOTS * LOAD_FACTOR < capacity) {
+            buckets <<= 1;
+        }
+        if (buckets > MAX_BUCKETS) {
+            throw new IllegalArgumentException("A filter for " + capacity + " UUIDs is too large.");
+        }
+        return (int) buckets;
+    }
+
+    /**
+     * <p>Constructs a filter over mapped buckets.</p>
+     *
+     * @param storage the mapped buckets, a power of two words.
+     * @param size the number of fingerprints stored.
+     */
+    private UUIDCuckooFilter(RecordStorage storage, long size) {
+        super();
+        this.mask = (int) (2 * storage.capacity()) - 1;
+        this.buckets = null;
+        this.storage = storage;
+        this.size = new AtomicLong(size);
+    }
+
+    /**
+     * <p>Maps a filter file read only. Lookups read the file directly;
+     * changes throw <code>IllegalStateException</code>.</p>
+     *
+     * @param file the filter file.
+     * @return the mapped filter.
+     * @throws IOException if the file cannot be mapped or is not a filter file.
+     */
+    public static UUIDCuckooFilter open(File file) throws IOException {
+        RecordStorage storage = RecordStorage.map(file, RecordStorage.recordsIn(file), true);
+        long buckets = 2 * storage.capacity();
+        long count = storage.header().getLong(RecordStorage.HEADER_SIZE);
+        if (storage.header().getInt(RecordStorage.HEADER_MAGIC) != MAGIC || buckets < 2 || buckets > MAX_BUCKETS
+                || (buckets & (buckets - 1)) != 0 || count < 0 || count > buckets * BUCKET_SLOTS) {
+            storage.release();
+            throw new IOException(file + " is not a UUID cuckoo filter file.");
+        }
+        return new UUIDCuckooFilter(storage, count);
+    }
+
+    /**
+     * <p>Reads a filter file into memory, where it accepts further changes.</p>
+     *
+     * @param file the filter file.
+     * @return the filter.
+     * @throws IOException if the file cannot be read or is not a filter file.
+     */
+    public static UUIDCuckooFilter load(File file) throws IOException {
+        UUIDCuckooFilter mapped = open(file);
+        try {
+            AtomicLongArray buckets = new AtomicLongArray(mapped.mask + 1);
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, mapped.bucket(i));
+            }
+            return new UUIDCuckooFilter(buckets, mapped.size());
+        } finally {
+            mapped.close();
+        }
+    }
+
+    /**
+     * <p>Saves the filter to a file, replacing its content. Changes made
+     * concurrently may or may not be saved.</p>
+     *
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeTo(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+        } finally {
+            raf.close();
+        }
+        RecordStorage out = RecordStorage.map(file, (mask + 1) / 2, false);
+        try {
+            for (int i = 0; i <= mask; i++) {
+                out.putWord(i, bucket(i));
+            }
+            out.header().putInt(RecordStorage.HEADER_MAGIC, MAGIC);
+            out.header().putInt(RecordStorage.HEADER_FLAGS, FINGERPRINT_BITS);
+            out.header().putLong(RecordStorage.HEADER_SIZE, size.get());
+            out.force();
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * <p>Adds a UUID.</p>
+     *
+     * @param uuid the UUID to add.
+     * @return true if added, false if the filter is too full.
+     * @throws IllegalStateException if the filter is mapped read only.
+     */
+    public boolean put(UUID uuid) {
+        return put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Adds a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if added, false if the filter is too full.
+     * @throws IllegalStateException if the filter is mapped read only.
+     */
+    public boolean put(long mostSignificant, long leastSignificant) {
+        checkWritable();
+        long hash = HashUtils.hash128To64(mostSignificant, leastSignificant);
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & mask;
+        int second = alternate(first, fingerprint);
+        if (insert(first, fingerprint) || insert(second, fingerprint)) {
+            size.incrementAndGet();
+            return true;
+        }
+        synchronized (lock) {
+            for (int attempt = 0; attempt < MAX_RELOCATIONS; attempt++) {
+                if (!relocate(first, second)) {
+                    return false;
+                }
+                if (insert(first, fingerprint) || insert(second, fingerprint)) {
+                    size.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Removes one copy of a UUID.</p>
+     *
+     * @param uuid the UUID to remove.
+     * @return true if a matching fingerprint was removed.
+     * @throws IllegalStateException if the filter is mapped read only.
+     */
+    public boolean remove(UUID uuid) {
+        return remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Removes one copy of a UUID given by its two halves.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return true if a matching fingerprint was removed.
+     * @throws IllegalStateException if the filter is mapped read only.
+     */
+    public boolean remove(long mostSignificant, long leastSignificant) {
+        checkWritable();
+        long hash = HashUtils.hash128To64(mostSignificant, leastSignificant);
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & mask;
+        synchronized (lock) {
+            if (clear(first, fingerprint) || clear(alternate(first, fingerprint), fingerprint)) {
+                size.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Returns whether a UUID might have been added.</p>
+     *
+     * @param uuid the UUID to look for.
+     * @return false if the UUID is certainly not in the filter.
+     */
+    public boolean mightContain(UUID uuid) {
+        return mightContain(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Returns whether a UUID given by its two halves might have been
+     * added.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return false if the UUID is certainly not in the filter.
+     * @throws IllegalStateException if a mapped filter has been closed.
+     */
+    public boolean mightContain(long mostSignificant, long leastSignificant) {
+        long hash = HashUtils.hash128To64(mostSignificant, leastSignificant);
+        long fingerprint = fingerprint(hash);
+        int first = (int) hash & mask;
+        int second = alternate(first, fingerprint);
+        while (true) {
+            long version = relocations.get();
+            if (holds(bucket(first), fingerprint) || holds(bucket(second), fingerprint)) {
+                return true;
+            }
+            if ((version & 1) == 0 && relocations.get() == version) {
+                return false;
+            }
+            // a relocation may have moved the fingerprint between the two reads; look again
+        }
+    }
+
+    /**
+     * <p>Returns the number of fingerprints stored.</p>
+     *
+     * @return the number of UUIDs added and not removed.
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * <p>Returns the number of fingerprint slots.</p>
+     *
+     * @return the capacity in fingerprints.
+     */
+    public long slots() {
+        return (long) (mask + 1) * BUCKET_SLOTS;
+    }
+
+    /**
+     * <p>Releases the mapping of a filter returned by {@link #open(File)}.
+     * Closing a filter in memory or a closed filter has no effect.</p>
+     */
+    public void close() {
+        RecordStorage mapped = storage;
+        if (mapped != null) {
+            storage = null;
+            mapped.release();
+        }
+    }
+
+    /**
+     * <p>Moves fingerprints so that one of two buckets has a free slot. The
+     * search is breadth first, so the path is as short as possible.</p>
+     *
+     * @param first the first bucket.
+     * @param second the second bucket.
+     * @return false if no free slot is within reach; true if a path was
+     *  found, even if it went stale before a slot could be freed.
+     */
+    private boolean relocate(int first, int second) {
+        // node i: bucket[i] was reached by moving the fingerprint in slot[i]
+        // of the bucket of node parent[i]
+        int[] bucket = new int[MAX_SEARCH];
+        int[] parent = new int[MAX_SEARCH];
+        int[] slot = new int[MAX_SEARCH];
+        bucket[0] = first;
+        parent[0] = -1;
+        bucket[1] = second;
+        parent[1] = -1;
+        int tail = 2;
+        for (int head = 0; head < tail; head++) {
+            long word = buckets.get(bucket[head]);
+            if (freeSlot(word) >= 0) {
+                moveAlong(head, bucket, parent, slot);
+                return true;
+            }
+            for (int s = 0; s < BUCKET_SLOTS && tail < MAX_SEARCH; s++) {
+                bucket[tail] = alternate(bucket[head], (word >>> (s * FINGERPRINT_BITS)) & FINGERPRINT_MASK);
+                parent[tail] = head;
+                slot[tail] = s;
+                tail++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Moves the fingerprints of a search path one step each, starting
+     * with the move into the free slot.</p>
+     *
+     * @param node the node whose bucket has a free slot.
+     * @param bucket the bucket of each node.
+     * @param parent the parent of each node.
+     * @param slot the slot of the parent's bucket each node was reached from.
+     */
+    private void moveAlong(int node, int[] bucket, int[] parent, int[] slot) {
+        relocations.incrementAndGet();
+        try {
+            while (parent[node] >= 0) {
+                int from = bucket[parent[node]];
+                int to = bucket[node];
+                int shift = slot[node] * FINGERPRINT_BITS;
+                long fingerprint = (buckets.get(from) >>> shift) & FINGERPRINT_MASK;
+                if (fingerprint == 0 || alternate(from, fingerprint) != to || !insert(to, fingerprint)) {
+                    // the path went stale; what was moved so far is consistent
+                    return;
+                }
+                long word = buckets.get(from);
+                while (!buckets.compareAndSet(from, word, word & ~(FINGERPRINT_MASK << shift))) {
+                    word = buckets.get(from);
+                }
+                node = parent[node];
+            }
+        } finally {
+            relocations.incrementAndGet();
+        }
+    }
+
+    /**
+     * <p>Stores a fingerprint in a free slot of a bucket.</p>
+     *
+     * @param index the bucket.
+     * @param fingerprint the fingerprint.
+     * @return false if the bucket is full.
+     */
+    private boolean insert(int index, long fingerprint) {
+        while (true) {
+            long word = buckets.get(index);
+            int free = freeSlot(word);
+            if (free < 0) {
+                return false;
+            }
+            if (buckets.compareAndSet(index, word, word | (fingerprint << (free * FINGERPRINT_BITS)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * <p>Clears one slot of a bucket holding a fingerprint.</p>
+     *
+     * @param index the bucket.
+     * @param fingerprint the fingerprint.
+     * @return false if the bucket does not hold the fingerprint.
+     */
+    private boolean clear(int index, long fingerprint) {
+        while (true) {
+            long word = buckets.get(index);
+            int found = -1;
+            for (int s = 0; s < BUCKET_SLOTS && found < 0; s++) {
+                if (((word >>> (s * FINGERPRINT_BITS)) & FINGERPRINT_MASK) == fingerprint) {
+                    found = s;
+                }
+            }
+            if (found < 0) {
+                return false;
+            }
+            if (buckets.compareAndSet(index, word, word & ~(FINGERPRINT_MASK << (found * FINGERPRINT_BITS)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * <p>Returns whether a bucket holds a fingerprint, testing its four slots
+     * at once.</p>
+     *
+     * @param word the bucket.
+     * @param fingerprint the fingerprint.
+     * @return true if a slot equals the fingerprint.
+     */
+    private static boolean holds(long word, long fingerprint) {
+        long x = word ^ (fingerprint * LOW_BITS);
+        return ((x - LOW_BITS) & ~x & HIGH_BITS) != 0;
+    }
+
+    /**
+     * <p>Returns the first free slot of a bucket.</p>
+     *
+     * @param word the bucket.
+     * @return the slot, or -1 if the bucket is full.
+     */
+    private static int freeSlot(long word) {
+        long empty = (word - LOW_BITS) & ~word & HIGH_BITS;
+        return empty == 0 ? -1 : Long.numberOfTrailingZeros(empty) / FINGERPRINT_BITS;
+    }
+
+    /**
+     * <p>Returns the fingerprint of a hash, never zero since zero marks a
+     * free slot.</p>
+     *
+     * @param hash the hash of a UUID.
+     * @return the fingerprint.
+     */
+    private static long fingerprint(long hash) {
+        long fingerprint = hash >>> (64 - FINGERPRINT_BITS);
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /**
+     * <p>Returns the other bucket of a fingerprint.</p>
+     *
+     * @param index one bucket of the fingerprint.
+     * @param fingerprint the fingerprint.
+     * @return the other bucket.
+     */
+    private int alternate(int index, long fingerprint) {
+        return (index ^ (int) HashUtils.mix64(fingerprint)) & mask;
+    }
+
+    /**
+     * <p>Returns a bucket.</p>
+     *
+     * @param index the bucket index.
+     * @return the bucket word.
+     */
+    private long bucket(int index) {
+        if (buckets != null) {
+            return buckets.get(index);
+        }
+        RecordStorage mapped = storage;
+        if (mapped == null) {
+            throw new IllegalStateException("The filter has been closed.");
+        }
+        return mapped.word(index);
+    }
+
+    /**
+     * <p>Checks that the filter accepts changes.</p>
+     *
+     * @throws IllegalStateException if the filter is mapped read only.
+     */
+    private void checkWritable() {
+        if (buckets == null) {
+            throw new IllegalStateException("The filter is read only.");
+        }
+    }
+}
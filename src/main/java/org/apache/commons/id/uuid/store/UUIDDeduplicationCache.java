@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.id.HashUtils;
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>Remembers which UUIDs were seen within a recent time window, for
+ * example to reject repeated idempotency keys. The cache is keyed by the
+ * 128-bit value and stores only primitives, so it creates no garbage per
+ * call and needs no sweeper.</p>
+ *
+ * <p>Time is divided into generations of <code>windowMillis / generations</code>
+ * milliseconds. Every entry is stamped with the generation it was added in
+ * and stays live for <code>generations</code> further generations, so a UUID
+ * is remembered for at least <code>windowMillis</code> and at most one extra
+ * generation. When the clock moves into a new generation the oldest one is
+ * dropped in O(1): its entries simply stop counting as live and their slots
+ * are reused by later insertions.</p>
+ *
+ * <p>The table is split into independently locked stripes whose number of
+ * slots is fixed at construction. Slots are grouped in buckets of eight and
+ * every key has two candidate buckets, so a lookup inspects at most sixteen
+ * slots no matter how many entries have expired. If all sixteen are live the
+ * oldest entry is evicted early and counted by {@link #getEvictions()}. All
+ * memory is allocated up front: two to four slots of 20 bytes per UUID of
+ * capacity, rounded to powers of two. This class is thread safe.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDDeduplicationCache {
+
+    /** The number of slots in a bucket. */
+    private static final int BUCKET_SLOTS = 8;
+
+    /** The stripes, a power of two. */
+    private final Stripe[] stripes;
+
+    /** log2 of the number of stripes. */
+    private final int stripeShift;
+
+    /** The length of a generation, in milliseconds. */
+    private final long generationMillis;
+
+    /** The number of generations an entry stays live after the one it was added in. */
+    private final int generations;
+
+    /** The generation number of the construction time; stamps are relative to it. */
+    private final long baseGeneration;
+
+    /** The number of live entries evicted for lack of room. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * <p>Constructs a cache.</p>
+     *
+     * @param windowMillis the minimum time a UUID is remembered, in milliseconds.
+     * @param generations the number of generations the window is divided into.
+     * @param capacity the number of UUIDs the cache is sized for.
+     * @param concurrency the expected number of concurrently updating threads.
+     * @throws IllegalArgumentException if an argument is not positive or the
+     *  window is shorter than the number of generations.
+     */
+    public UUIDDeduplicationCache(long windowMillis, int generations, int capacity, int concurrency) {
+        super();
+        if (generations < 1 || capacity < 1 || concurrency < 1 || windowMillis < generations) {
+            throw new IllegalArgumentException("Arguments must be positive and the window at least "
+                    + "one millisecond per generation.");
+        }
+        this.generations = generations;
+        this.generationMillis = (windowMillis + generations - 1) / generations;
+        this.baseGeneration = System.currentTimeMillis() / generationMillis;
+
+        int shift = 0;
+        while ((1 << shift) < concurrency && shift < 16) {
+            shift++;
+        }
+        this.stripeShift = shift;
+        this.stripes = new Stripe[1 << shift];
+        // two slots per UUID keeps both candidate buckets from filling up
+        int perStripe = (capacity + stripes.length - 1) / stripes.length;
+        int buckets = 1;
+        while (buckets * BUCKET_SLOTS < 2 * perStripe) {
+            buckets <<= 1;
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(buckets);
+        }
+    }
+
+    /**
+     * <p>Records a UUID as seen now.</p>
+     *
+     * @param uuid the UUID.
+     * @return true if the UUID was not seen within the window, false if it is a repeat.
+     */
+    public boolean add(UUID uuid) {
+        return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), System.currentTimeMillis());
+    }
+
+    /**
+     * <p>Records a UUID, given by its two halves, as seen at a time.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @param nowMillis the current time in milliseconds.
+     * @return true if the UUID was not seen within the window, false if it is a repeat.
+     */
+    public boolean add(long mostSignificant, long leastSignificant, long nowMillis) {
+        long hash = HashUtils.hash128To64(mostSignificant, leastSignificant);
+        Stripe stripe = stripes[stripeOf(hash)];
+        int now = stamp(nowMillis);
+        synchronized (stripe) {
+            int first = firstSlot(stripe, hash);
+            int second = secondSlot(stripe, hash);
+            if (find(stripe, first, mostSignificant, leastSignificant, now)
+                    || find(stripe, second, mostSignificant, leastSignificant, now)) {
+                return false;
+            }
+            // insert into the less loaded bucket to keep both from filling up
+            int slot;
+            if (liveCount(stripe, first, now) <= liveCount(stripe, second, now)) {
+                slot = freeSlot(stripe, first, now);
+            } else {
+                slot = freeSlot(stripe, second, now);
+            }
+            if (slot < 0) {
+                evictions.incrementAndGet();
+                slot = oldestSlot(stripe, first, second);
+            }
+            stripe.keys[2 * slot] = mostSignificant;
+            stripe.keys[2 * slot + 1] = leastSignificant;
+            stripe.stamps[slot] = now;
+            return true;
+        }
+    }
+
+    /**
+     * <p>Returns whether a UUID was seen within the window, without recording it.</p>
+     *
+     * @param uuid the UUID.
+     * @return true if the UUID was seen within the window.
+     */
+    public boolean contains(UUID uuid) {
+        return contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), System.currentTimeMillis());
+    }
+
+    /**
+     * <p>Returns whether a UUID, given by its two halves, was seen within the
+     * window ending at a time.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @param nowMillis the current time in milliseconds.
+     * @return true if the UUID was seen within the window.
+     */
+    public boolean contains(long mostSignificant, long leastSignificant, long nowMillis) {
+        long hash = HashUtils.hash128To64(mostSignificant, leastSignificant);
+        Stripe stripe = stripes[stripeOf(hash)];
+        int now = stamp(nowMillis);
+        synchronized (stripe) {
+            return find(stripe, firstSlot(stripe, hash), mostSignificant, leastSignificant, now)
+                    || find(stripe, secondSlot(stripe, hash), mostSignificant, leastSignificant, now);
+        }
+    }
+
+    /**
+     * <p>Returns the number of live entries evicted before the end of their
+     * window because their probe window was full. A growing count means the
+     * cache is undersized for the traffic.</p>
+     *
+     * @return the number of early evictions.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * <p>Returns the total number of slots, which bounds the number of
+     * UUIDs remembered at once.</p>
+     *
+     * @return the number of slots.
+     */
+    public int getSlots() {
+        return stripes.length * stripes[0].stamps.length;
+    }
+
+    /**
+     * <p>Returns the first slot of a key's first bucket.</p>
+     *
+     * @param stripe the key's stripe.
+     * @param hash the key hash.
+     * @return the first slot of the bucket.
+     */
+    private static int firstSlot(Stripe stripe, long hash) {
+        return ((int) hash & stripe.bucketMask) * BUCKET_SLOTS;
+    }
+
+    /**
+     * <p>Returns the first slot of a key's second bucket.</p>
+     *
+     * @param stripe the key's stripe.
+     * @param hash the key hash.
+     * @return the first slot of the bucket.
+     */
+    private static int secondSlot(Stripe stripe, long hash) {
+        return ((int) (hash >>> 24) & stripe.bucketMask) * BUCKET_SLOTS;
+    }
+
+    /**
+     * <p>Returns whether a bucket holds a live entry for a key.</p>
+     *
+     * @param stripe the stripe.
+     * @param bucket the first slot of the bucket.
+     * @param mostSignificant the most significant 64 bits of the key.
+     * @param leastSignificant the least significant 64 bits of the key.
+     * @param now the current generation stamp.
+     * @return true if the key is live in the bucket.
+     */
+    private boolean find(Stripe stripe, int bucket, long mostSignificant, long leastSignificant, int now) {
+        for (int slot = bucket; slot < bucket + BUCKET_SLOTS; slot++) {
+            if (stripe.keys[2 * slot] == mostSignificant && stripe.keys[2 * slot + 1] == leastSignificant
+                    && stripe.stamps[slot] != 0 && isLive(stripe.stamps[slot], now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Returns a slot of a bucket that is unused or expired.</p>
+     *
+     * @param stripe the stripe.
+     * @param bucket the first slot of the bucket.
+     * @param now the current generation stamp.
+     * @return the free slot, or -1 if every slot is live.
+     */
+    private int freeSlot(Stripe stripe, int bucket, int now) {
+        for (int slot = bucket; slot < bucket + BUCKET_SLOTS; slot++) {
+            if (stripe.stamps[slot] == 0 || !isLive(stripe.stamps[slot], now)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>Returns the number of live entries in a bucket.</p>
+     *
+     * @param stripe the stripe.
+     * @param bucket the first slot of the bucket.
+     * @param now the current generation stamp.
+     * @return the number of live slots.
+     */
+    private int liveCount(Stripe stripe, int bucket, int now) {
+        int live = 0;
+        for (int slot = bucket; slot < bucket + BUCKET_SLOTS; slot++) {
+            if (stripe.stamps[slot] != 0 && isLive(stripe.stamps[slot], now)) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * <p>Returns the slot holding the oldest entry of two buckets.</p>
+     *
+     * @param stripe the stripe.
+     * @param first the first slot of the first bucket.
+     * @param second the first slot of the second bucket.
+     * @return the slot with the oldest stamp.
+     */
+    private static int oldestSlot(Stripe stripe, int first, int second) {
+        int oldest = first;
+        for (int i = 0; i < BUCKET_SLOTS; i++) {
+            if (stripe.stamps[first + i] - stripe.stamps[oldest] < 0) {
+                oldest = first + i;
+            }
+            if (stripe.stamps[second + i] - stripe.stamps[oldest] < 0) {
+                oldest = second + i;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * <p>Returns the stripe of a hash, taken from its high bits.</p>
+     *
+     * @param hash the key hash.
+     * @return the stripe index.
+     */
+    private int stripeOf(long hash) {
+        return stripeShift == 0 ? 0 : (int) (hash >>> (64 - stripeShift));
+    }
+
+    /**
+     * <p>Returns the generation stamp for a time; stamps start at 1 so that
+     * 0 marks a slot that was never used. Times before construction share
+     * the first stamp.</p>
+     *
+     * @param millis the time in milliseconds.
+     * @return the generation stamp.
+     */
+    private int stamp(long millis) {
+        return (int) Math.max(1, millis / generationMillis - baseGeneration + 1);
+    }
+
+    /**
+     * <p>Returns whether an entry stamped in one generation is live in another.</p>
+     *
+     * @param stamp the entry's generation stamp.
+     * @param now the current generation stamp.
+     * @return true if the entry is still within the window.
+     */
+    private boolean isLive(int stamp, int now) {
+        return now - stamp <= generations;
+    }
+
+    /**
+     * <p>One independently locked slot table.</p>
+     */
+    private static final class Stripe {
+
+        /** The keys, as msb, lsb pairs per slot. */
+        final long[] keys;
+
+        /** The generation stamp per slot, 0 if never used. */
+        final int[] stamps;
+
+        /** The number of buckets - 1. */
+        final int bucketMask;
+
+        /**
+         * <p>Constructs a stripe.</p>
+         *
+         * @param buckets the number of buckets, a power of two.
+         */
+        Stripe(int buckets) {
+            keys = new long[2 * buckets * BUCKET_SLOTS];
+            stamps = new int[buckets * BUCKET_SLOTS];
+            bucketMask = buckets - 1;
+        }
+    }
+}
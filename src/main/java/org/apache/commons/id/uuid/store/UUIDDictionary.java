@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.id.HashUtils;
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>A thread safe dictionary assigning dense <code>int</code> codes to
+ * UUIDs, for storing columns that repeat a limited set of UUIDs as 4 bytes
+ * per row instead of 16. Codes are assigned on first sight, counting up
+ * from zero, and are never reassigned.</p>
+ *
+ * <p>UUIDs are found through a set of striped open-addressing hash tables
+ * of primitive arrays, each guarded by its own lock, so no object is
+ * created per UUID. Codes decode through pages of packed
+ * <code>msb, lsb</code> pairs indexed by code. A code may be decoded by any
+ * thread that received it from an <code>encode</code> method directly or
+ * through safe publication.</p>
+ *
+ * <p>{@link #writeTo(DataOutput)} writes a consistent snapshot of 16 bytes
+ * per UUID in code order, which {@link #readFrom(DataInput)} turns back
+ * into a dictionary with the same codes.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDDictionary {
+
+    /** Magic number identifying a snapshot, "UUD0". */
+    static final int MAGIC = 0x55554430;
+
+    /** Returned by {@link #lookup(long, long)} for a UUID without a code. */
+    public static final int NO_CODE = -1;
+
+    /** log2 of the UUIDs in a decode page. */
+    private static final int PAGE_SHIFT = 14;
+
+    /** Mask of a code's position within its page. */
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+    /** The default number of stripes. */
+    private static final int DEFAULT_CONCURRENCY = 16;
+
+    /** The stripes. */
+    private final Stripe[] stripes;
+
+    /** log2 of the number of stripes. */
+    private final int stripeBits;
+
+    /** The number of codes assigned; written last, it publishes each new entry. */
+    private volatile int size;
+
+    /** The decode pages, replaced by a longer array as pages are added. */
+    private volatile long[][] pages = new long[0][];
+
+    /**
+     * <p>Constructs an empty dictionary with the default number of stripes.</p>
+     */
+    public UUIDDictionary() {
+        this(0, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * <p>Constructs an empty dictionary.</p>
+     *
+     * @param expectedSize the expected number of distinct UUIDs.
+     * @param concurrency the expected number of threads encoding at once;
+     *  rounded up to a power of two stripes.
+     * @throws IllegalArgumentException if expectedSize is negative or
+     *  concurrency is not positive.
+     */
+    public UUIDDictionary(int expectedSize, int concurrency) {
+        super();
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("The expected size must not be negative.");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("The concurrency must be positive.");
+        }
+        int bits = 0;
+        while (1 << bits < concurrency && bits < 16) {
+            bits++;
+        }
+        stripeBits = bits;
+        stripes = new Stripe[1 << bits];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(expectedSize >>> bits);
+        }
+    }
+
+    /**
+     * <p>Returns the code of a UUID, assigning the next code on first sight.</p>
+     *
+     * @param uuid the UUID.
+     * @return the UUID's code.
+     * @throws IllegalStateException if every int code is taken.
+     */
+    public int encode(UUID uuid) {
+        return encode(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * <p>Returns the code of a UUID given by its two halves, assigning the
+     * next code on first sight.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the UUID's code.
+     * @throws IllegalStateException if every int code is taken.
+     */
+    public int encode(long mostSignificant, long leastSignificant) {
+        long hash = HashUtils.hash128To64(mostSignificant, leastSignificant);
+        return stripeOf(hash).encode(this, hash, mostSignificant, leastSignificant);
+    }
+
+    /**
+     * <p>Returns the code of a UUID without assigning one.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the UUID's code, or {@link #NO_CODE}.
+     */
+    public int lookup(long mostSignificant, long leastSignificant) {
+        long hash = HashUtils.hash128To64(mostSignificant, leastSignificant);
+        return stripeOf(hash).lookup(hash, mostSignificant, leastSignificant);
+    }
+
+    /**
+     * <p>Encodes a column of packed UUIDs.</p>
+     *
+     * @param packed the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     * @param codes receives the code of UUID <code>i</code> at index <code>i</code>.
+     * @throws IllegalArgumentException if codes does not have one entry per UUID.
+     * @throws IllegalStateException if every int code is taken.
+     */
+    public void encode(long[] packed, int[] codes) {
+        if (codes.length != packed.length >>> 1) {
+            throw new IllegalArgumentException("Expected " + (packed.length >>> 1) + " codes, not " + codes.length);
+        }
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = encode(packed[2 * i], packed[2 * i + 1]);
+        }
+    }
+
+    /**
+     * <p>Decodes a column of codes into packed UUIDs.</p>
+     *
+     * @param codes the codes.
+     * @param packed receives UUID <code>i</code> at indexes <code>2i</code> and <code>2i + 1</code>.
+     * @throws IllegalArgumentException if packed does not have two entries per code.
+     * @throws IndexOutOfBoundsException if a code has not been assigned.
+     */
+    public void decode(int[] codes, long[] packed) {
+        if (packed.length != 2 * codes.length) {
+            throw new IllegalArgumentException("Expected " + 2 * codes.length + " longs, not " + packed.length);
+        }
+        int assigned = size;
+        long[][] current = pages;
+        for (int i = 0; i < codes.length; i++) {
+            int code = codes[i];
+            if (code < 0 || code >= assigned) {
+                assigned = size;
+                current = pages;
+                if (code < 0 || code >= assigned) {
+                    throw new IndexOutOfBoundsException("Unknown code " + code);
+                }
+            }
+            int page = code >>> PAGE_SHIFT;
+            int offset = (code & PAGE_MASK) << 1;
+            packed[2 * i] = current[page][offset];
+            packed[2 * i + 1] = current[page][offset + 1];
+        }
+    }
+
+    /**
+     * <p>Returns the UUID of a code.</p>
+     *
+     * @param code the code.
+     * @return a new UUID.
+     * @throws IndexOutOfBoundsException if the code has not been assigned.
+     */
+    public UUID decode(int code) {
+        long[] page = pageOf(code);
+        int offset = (code & PAGE_MASK) << 1;
+        return new UUID(page[offset], page[offset + 1]);
+    }
+
+    /**
+     * <p>Returns the most significant bits of the UUID of a code.</p>
+     *
+     * @param code the code.
+     * @return the most significant 64 bits.
+     * @throws IndexOutOfBoundsException if the code has not been assigned.
+     */
+    public long getMostSignificantBits(int code) {
+        return pageOf(code)[(code & PAGE_MASK) << 1];
+    }
+
+    /**
+     * <p>Returns the least significant bits of the UUID of a code.</p>
+     *
+     * @param code the code.
+     * @return the least significant 64 bits.
+     * @throws IndexOutOfBoundsException if the code has not been assigned.
+     */
+    public long getLeastSignificantBits(int code) {
+        return pageOf(code)[((code & PAGE_MASK) << 1) + 1];
+    }
+
+    /**
+     * <p>Returns the number of codes assigned.</p>
+     *
+     * @return the number of distinct UUIDs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * <p>Writes a snapshot of the dictionary: a magic number, the number of
+     * UUIDs and then every UUID as two longs, in code order. Encoding goes
+     * on meanwhile; the snapshot holds the codes assigned when it began.</p>
+     *
+     * @param out the destination.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        // size is read before pages, so every page it covers is there, and
+        // entries below it are never written again
+        int count = size;
+        long[][] current = pages;
+        out.writeInt(MAGIC);
+        out.writeInt(count);
+        for (int code = 0; code < count; code++) {
+            long[] page = current[code >>> PAGE_SHIFT];
+            int offset = (code & PAGE_MASK) << 1;
+            out.writeLong(page[offset]);
+            out.writeLong(page[offset + 1]);
+        }
+    }
+
+    /**
+     * <p>Reads a snapshot written by {@link #writeTo(DataOutput)}.</p>
+     *
+     * @param in the source.
+     * @return a dictionary with the same codes, using the default number of stripes.
+     * @throws IOException if reading fails or the data is not a snapshot.
+     */
+    public static UUIDDictionary readFrom(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a UUID dictionary snapshot.");
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt UUID dictionary snapshot.");
+        }
+        // a corrupt count must not size the tables; past this they grow as read
+        UUIDDictionary dictionary = new UUIDDictionary(Math.min(count, 1 << 16), DEFAULT_CONCURRENCY);
+        for (int code = 0; code < count; code++) {
+            if (dictionary.encode(in.readLong(), in.readLong()) != code) {
+                throw new IOException("Corrupt UUID dictionary snapshot: duplicate UUID at code " + code);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * <p>Returns the stripe of a hash.</p>
+     *
+     * @param hash the UUID's hash.
+     * @return the stripe.
+     */
+    private Stripe stripeOf(long hash) {
+        return stripes[stripeBits == 0 ? 0 : (int) (hash >>> (64 - stripeBits))];
+    }
+
+    /**
+     * <p>Returns the decode page of an assigned code.</p>
+     *
+     * @param code the code.
+     * @return the page.
+     * @throws IndexOutOfBoundsException if the code has not been assigned.
+     */
+    private long[] pageOf(int code) {
+        // size is read before pages, so every page it covers is visible
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException("Unknown code " + code);
+        }
+        return pages[code >>> PAGE_SHIFT];
+    }
+
+    /**
+     * <p>Assigns the next code to a UUID and records it for decoding.</p>
+     *
+     * @param mostSignificant the most significant 64 bits.
+     * @param leastSignificant the least significant 64 bits.
+     * @return the new code.
+     * @throws IllegalStateException if every int code is taken.
+     */
+    private synchronized int assign(long mostSignificant, long leastSignificant) {
+        if (size == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Every int code is taken.");
+        }
+        int code = size;
+        int page = code >>> PAGE_SHIFT;
+        long[][] current = pages;
+        if (page == current.length) {
+            long[][] grown = new long[page + 1][];
+            System.arraycopy(current, 0, grown, 0, page);
+            grown[page] = new long[2 << PAGE_SHIFT];
+            current = grown;
+        }
+        int offset = (code & PAGE_MASK) << 1;
+        current[page][offset] = mostSignificant;
+        current[page][offset + 1] = leastSignificant;
+        pages = current;
+        // the volatile write of size publishes the entry to lock-free decoders
+        size = code + 1;
+        return code;
+    }
+
+    /**
+     * <p>One stripe: an open-addressing table with linear probing of UUIDs
+     * and their codes, guarded by the stripe's monitor.</p>
+     */
+    private static final class Stripe {
+
+        /** The UUIDs, packed. */
+        private long[] keys;
+
+        /** The code of each slot, NO_CODE when the slot is empty. */
+        private int[] codes;
+
+        /** The number of occupied slots. */
+        private int used;
+
+        /**
+         * <p>Constructs an empty stripe.</p>
+         *
+         * @param expectedSize the expected number of UUIDs.
+         */
+        Stripe(int expectedSize) {
+            int slots = 16;
+            while (slots - (slots >>> 2) < expectedSize && slots < 1 << 30) {
+                slots <<= 1;
+            }
+            allocate(slots);
+        }
+
+        /**
+         * <p>Allocates empty tables.</p>
+         *
+         * @param slots the number of slots, a power of two.
+         */
+        private void allocate(int slots) {
+            keys = new long[2 * slots];
+            codes = new int[slots];
+            Arrays.fill(codes, NO_CODE);
+        }
+
+        /**
+         * <p>Returns the slot holding a UUID, or the empty slot ending its probe sequence.</p>
+         *
+         * @param hash the UUID's hash.
+         * @param mostSignificant the most significant 64 bits.
+         * @param leastSignificant the least significant 64 bits.
+         * @return the slot.
+         */
+        private int slotOf(long hash, long mostSignificant, long leastSignificant) {
+            int mask = codes.length - 1;
+            int slot = (int) hash & mask;
+            while (codes[slot] != NO_CODE
+                    && (keys[2 * slot] != mostSignificant || keys[2 * slot + 1] != leastSignificant)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * <p>Looks up a UUID.</p>
+         *
+         * @param hash the UUID's hash.
+         * @param mostSignificant the most significant 64 bits.
+         * @param leastSignificant the least significant 64 bits.
+         * @return the code, or NO_CODE.
+         */
+        synchronized int lookup(long hash, long mostSignificant, long leastSignificant) {
+            return codes[slotOf(hash, mostSignificant, leastSignificant)];
+        }
+
+        /**
+         * <p>Looks up a UUID, assigning a code if it is new.</p>
+         *
+         * @param dictionary the dictionary assigning codes.
+         * @param hash the UUID's hash.
+         * @param mostSignificant the most significant 64 bits.
+         * @param leastSignificant the least significant 64 bits.
+         * @return the code.
+         */
+        synchronized int encode(UUIDDictionary dictionary, long hash, long mostSignificant, long leastSignificant) {
+            int slot = slotOf(hash, mostSignificant, leastSignificant);
+            int code = codes[slot];
+            if (code != NO_CODE) {
+                return code;
+            }
+            code = dictionary.assign(mostSignificant, leastSignificant);
+            keys[2 * slot] = mostSignificant;
+            keys[2 * slot + 1] = leastSignificant;
+            codes[slot] = code;
+            if (++used > codes.length - (codes.length >>> 2)) {
+                rehash();
+            }
+            return code;
+        }
+
+        /**
+         * <p>Doubles the table.</p>
+         */
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldCodes = codes;
+            allocate(2 * oldCodes.length);
+            for (int i = 0; i < oldCodes.length; i++) {
+                if (oldCodes[i] != NO_CODE) {
+                    long msb = oldKeys[2 * i];
+                    long lsb = oldKeys[2 * i + 1];
+                    int slot = slotOf(HashUtils.hash128To64(msb, lsb), msb, lsb);
+                    keys[2 * slot] = msb;
+                    keys[2 * slot + 1] = lsb;
+                    codes[slot] = oldCodes[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.id.uuid.store;
+
+import org.apache.commons.id.Hex;
+import org.apache.commons.id.uuid.UUID;
+
+/**
+ * <p>An immutable index resolving abbreviated UUIDs, typed as a prefix of
+ * their hex string the way abbreviated commit ids are, to the full UUID.
+ * Dashes in a prefix are ignored and hex digits may be of either case.</p>
+ *
+ * <p>The UUIDs are held sorted and without duplicates in a packed
+ * <code>long[]</code>, 16 bytes per UUID. A prefix covers a contiguous range
+ * of that order, from the prefix padded with zero bits to the prefix padded
+ * with one bits, so resolving it is a single binary search followed by a
+ * look at the next element. The shortest unique prefix of a UUID only
+ * depends on its neighbours in the order: it is one nibble longer than the
+ * longer of the common prefixes it shares with them.</p>
+ *
+ * @author Commons-Id team
+ * @version $Id$
+ */
+public final class UUIDPrefixIndex {
+
+    /** Returned by {@link #indexOf(CharSequence)} when no UUID has the prefix. */
+    public static final int NOT_FOUND = -1;
+
+    /** Returned by {@link #indexOf(CharSequence)} when several UUIDs have the prefix. */
+    public static final int AMBIGUOUS = -2;
+
+    /** The number of hex digits in a UUID. */
+    private static final int NIBBLES = 32;
+
+    /** The sorted, distinct UUIDs, packed. */
+    private final long[] packed;
+
+    /** The number of UUIDs. */
+    private final int size;
+
+    /** The length in digits of the longest shortest unique prefix. */
+    private final int uniqueLength;
+
+    /**
+     * <p>Constructs an index over UUIDs. Duplicates are ignored.</p>
+     *
+     * @param uuids the UUIDs to index.
+     */
+    public UUIDPrefixIndex(UUID[] uuids) {
+        this(PackedUUIDs.pack(uuids), false);
+    }
+
+    /**
+     * <p>Constructs an index over packed UUIDs. The array is copied;
+     * duplicates are ignored.</p>
+     *
+     * @param packed the UUIDs as consecutive <code>msb, lsb</code> pairs.
+     */
+    public UUIDPrefixIndex(long[] packed) {
+        this(packed, true);
+    }
+
+    /**
+     * <p>Constructs an index, sorting and deduplicating the packed UUIDs.</p>
+     *
+     * @param packed the packed UUIDs.
+     * @param copy whether the array must be copied first.
+     */
+    private UUIDPrefixIndex(long[] packed, boolean copy) {
+        super();
+        long[] sorted = copy ? packed.clone() : packed;
+        int count = sorted.length >>> 1;
+        PackedUUIDs.sort(sorted, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || sorted[2 * i] != sorted[2 * distinct - 2]
+                    || sorted[2 * i + 1] != sorted[2 * distinct - 1]) {
+                sorted[2 * distinct] = sorted[2 * i];
+                sorted[2 * distinct + 1] = sorted[2 * i + 1];
+                distinct++;
+            }
+        }
+        if (2 * distinct != sorted.length) {
+            long[] trimmed = new long[2 * distinct];
+            System.arraycopy(sorted, 0, trimmed, 0, trimmed.length);
+            sorted = trimmed;
+        }
+        this.packed = sorted;
+        this.size = distinct;
+        int longest = distinct == 0 ? 0 : 1;
+        for (int i = 1; i < distinct; i++) {
+            longest = Math.max(longest, commonNibbles(i - 1, i) + 1);
+        }
+        this.uniqueLength = longest;
+    }
+
+    /**
+     * <p>Returns the number of distinct UUIDs indexed.</p>
+     *
+     * @return the number of UUIDs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * <p>Returns a UUID by its position in ascending order.</p>
+     *
+     * @param index the position.
+     * @return the UUID at index.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public UUID get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + size + ")");
+        }
+        return new UUID(packed[2 * index], packed[2 * index + 1]);
+    }
+
+    /**
+     * <p>Resolves a prefix to the position of the only UUID having it.</p>
+     *
+     * @param prefix hex digits, optionally with dashes.
+     * @return the position of the matching UUID, {@link #NOT_FOUND} or {@link #AMBIGUOUS}.
+     * @throws IllegalArgumentException if prefix holds a character other than
+     *  a hex digit or dash, or more than 32 hex digits.
+     */
+    public int indexOf(CharSequence prefix) {
+        long[] bounds = bounds(prefix);
+        int first = lowerBound(bounds[0], bounds[1]);
+        if (first == size || compare(first, bounds[2], bounds[3]) > 0) {
+            return NOT_FOUND;
+        }
+        if (first + 1 < size && compare(first + 1, bounds[2], bounds[3]) <= 0) {
+            return AMBIGUOUS;
+        }
+        return first;
+    }
+
+    /**
+     * <p>Resolves a prefix to the only UUID having it.</p>
+     *
+     * @param prefix hex digits, optionally with dashes.
+     * @return the matching UUID, or null if no UUID or more than one has the prefix.
+     * @throws IllegalArgumentException if prefix holds a character other than
+     *  a hex digit or dash, or more than 32 hex digits.
+     */
+    public UUID resolve(CharSequence prefix) {
+        int index = indexOf(prefix);
+        return index >= 0 ? get(index) : null;
+    }
+
+    /**
+     * <p>Returns the number of UUIDs having a prefix.</p>
+     *
+     * @param prefix hex digits, optionally with dashes.
+     * @return the number of matching UUIDs.
+     * @throws IllegalArgumentException if prefix holds a character other than
+     *  a hex digit or dash, or more than 32 hex digits.
+     */
+    public int count(CharSequence prefix) {
+        long[] bounds = bounds(prefix);
+        return upperBound(bounds[2], bounds[3]) - lowerBound(bounds[0], bounds[1]);
+    }
+
+    /**
+     * <p>Returns the first UUIDs having a prefix, for listing the candidates
+     * of an ambiguous prefix.</p>
+     *
+     * @param prefix hex digits, optionally with dashes.
+     * @param limit the largest number of UUIDs to return.
+     * @return up to limit matching UUIDs, in ascending order.
+     * @throws IllegalArgumentException if prefix holds a character other than
+     *  a hex digit or dash, or more than 32 hex digits.
+     */
+    public UUID[] matches(CharSequence prefix, int limit) {
+        long[] bounds = bounds(prefix);
+        int first = lowerBound(bounds[0], bounds[1]);
+        int end = Math.min(upperBound(bounds[2], bounds[3]), first + Math.max(0, limit));
+        UUID[] result = new UUID[end - first];
+        for (int i = first; i < end; i++) {
+            result[i - first] = get(i);
+        }
+        return result;
+    }
+
+    /**
+     * <p>Returns the number of hex digits that identify the UUID at a
+     * position among all the indexed UUIDs.</p>
+     *
+     * @param index the position.
+     * @return the length in hex digits, from 1 to 32, of its shortest unique prefix.
+     * @throws IndexOutOfBoundsException if index is not in <code>[0, size)</code>.
+     */
+    public int uniquePrefixLength(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + size + ")");
+        }
+        int common = 0;
+        if (index > 0) {
+            common = commonNibbles(index - 1, index);
+        }
+        if (index + 1 < size) {
+            common = Math.max(common, commonNibbles(index, index + 1));
+        }
+        return Math.min(NIBBLES, common + 1);
+    }
+
+    /**
+     * <p>Returns the shortest prefix of a UUID's string form that resolves
+     * to it, dashes included where they fall within the prefix.</p>
+     *
+     * @param uuid an indexed UUID.
+     * @return the shortest unique prefix.
+     * @throws IllegalArgumentException if the UUID is not indexed.
+     */
+    public String shortestUniquePrefix(UUID uuid) {
+        int index = lowerBound(uuid.getMostSignificantBits() ^ Long.MIN_VALUE,
+                uuid.getLeastSignificantBits() ^ Long.MIN_VALUE);
+        if (index == size || compare(index, uuid.getMostSignificantBits() ^ Long.MIN_VALUE,
+                uuid.getLeastSignificantBits() ^ Long.MIN_VALUE) != 0) {
+            throw new IllegalArgumentException(uuid + " is not indexed.");
+        }
+        int nibbles = uniquePrefixLength(index);
+        int dashes = (nibbles > 8 ? 1 : 0) + (nibbles > 12 ? 1 : 0) + (nibbles > 16 ? 1 : 0)
+                + (nibbles > 20 ? 1 : 0);
+        return uuid.toString().substring(0, nibbles + dashes);
+    }
+
+    /**
+     * <p>Returns the prefix length, in hex digits, that makes every indexed
+     * UUID unique, suitable as a uniform display length.</p>
+     *
+     * @return the longest shortest unique prefix, 0 for an empty index.
+     */
+    public int getUniqueLength() {
+        return uniqueLength;
+    }
+
+    /**
+     * <p>Returns the number of leading hex digits two neighbours share.</p>
+     *
+     * @param i the first position.
+     * @param j the second position.
+     * @return the length of their common prefix in hex digits.
+     */
+    private int commonNibbles(int i, int j) {
+        long most = packed[2 * i] ^ packed[2 * j];
+        if (most != 0) {
+            return Long.numberOfLeadingZeros(most) >>> 2;
+        }
+        long least = packed[2 * i + 1] ^ packed[2 * j + 1];
+        return 16 + (Long.numberOfLeadingZeros(least) >>> 2);
+    }
+
+    /**
+     * <p>Parses a prefix into the smallest and largest UUIDs having it, with
+     * their sign bits flipped for signed comparison.</p>
+     *
+     * @param prefix hex digits, optionally with dashes.
+     * @return the low most, low least, high most and high least bits.
+     * @throws IllegalArgumentException if the prefix is malformed.
+     */
+    private static long[] bounds(CharSequence prefix) {
+        long most = 0;
+        long least = 0;
+        int nibbles = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '-') {
+                continue;
+            }
+            int digit = Hex.decodeDigit(c);
+            if (digit < 0 || nibbles == NIBBLES) {
+                throw new IllegalArgumentException("Not a UUID prefix: " + prefix);
+            }
+            if (nibbles < 16) {
+                most |= (long) digit << (60 - 4 * nibbles);
+            } else {
+                least |= (long) digit << (60 - 4 * (nibbles - 16));
+            }
+            nibbles++;
+        }
+        long mostMask = nibbles >= 16 ? -1L : nibbles == 0 ? 0L : -1L << (64 - 4 * nibbles);
+        long leastMask = nibbles <= 16 ? 0L : nibbles == NIBBLES ? -1L : -1L << (64 - 4 * (nibbles - 16));
+        return new long[] {most ^ Long.MIN_VALUE, least ^ Long.MIN_VALUE,
+                (most | ~mostMask) ^ Long.MIN_VALUE, (least | ~leastMask) ^ Long.MIN_VALUE};
+    }
+
+    /**
+     * <p>Compares an indexed UUID with flipped bits.</p>
+     *
+     * @param index the position.
+     * @param most the flipped most significant bits.
+     * @param least the flipped least significant bits.
+     * @return the comparison of the UUID at index with the given one.
+     */
+    private int compare(int index, long most, long least) {
+        return PackedUUIDs.compare(packed[2 * index] ^ Long.MIN_VALUE, packed[2 * index + 1] ^ Long.MIN_VALUE,
+                most, least);
+    }
+
+    /**
+     * <p>Returns the first position whose UUID is at least a value.</p>
+     *
+     * @param most the flipped most significant bits.
+     * @param least the flipped least significant bits.
+     * @return the position, or size if every UUID is smaller.
+     */
+    private int lowerBound(long most, long least) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, most, least) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * <p>Returns the first position whose UUID is greater than a value.</p>
+     *
+     * @param most the flipped most significant bits.
+     * @param least the flipped least significant bits.
+     * @return the position, or size if every UUID is at most the value.
+     */
+    private int upperBound(long most, long least) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, most, least) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}